@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Resources;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.util.Log;
+
+import com.oneplus.settings.device.utils.Constants;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+public class AutoHBMService extends Service implements SensorEventListener {
+
+    private static final String TAG = "AutoHBMService";
+    private static final boolean DEBUG = false;
+
+    private static final String KEY_TOGGLE_COUNT = "auto_hbm_toggle_count";
+    private static final String KEY_ON_TIME = "auto_hbm_on_time";
+
+    private SensorManager mSensorManager;
+    private Sensor mLightSensor;
+    private SettingsStore mPrefs;
+
+    private int mEnableLux;
+    private int mDisableLux;
+    private long mEnableDwell;
+    private long mDisableDwell;
+    private long mMinOnTime;
+    private int mSamplingPeriodUs;
+    private int mMaxReportLatencyUs;
+
+    private boolean mListening;
+    private boolean mHbmEnabled;
+    private long mAboveSince = -1;
+    private long mBelowSince = -1;
+    private long mEnabledSince;
+
+    private final BroadcastReceiver mScreenStateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_SCREEN_ON.equals(intent.getAction())) {
+                startListening();
+            } else if (Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) {
+                stopListening();
+            }
+        }
+    };
+
+    public static void update(Context context, boolean enabled) {
+        Intent intent = new Intent(context, AutoHBMService.class);
+        if (enabled && HBMModeSwitch.isSupported()) {
+            context.startServiceAsUser(intent, UserHandle.CURRENT);
+        } else {
+            context.stopServiceAsUser(intent, UserHandle.CURRENT);
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        FeatureCounters.init(this);
+        mPrefs = SettingsStore.get(this);
+        mSensorManager = getSystemService(SensorManager.class);
+        mLightSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
+
+        Resources res = getResources();
+        mEnableLux = res.getInteger(R.integer.config_autoHbmEnableLux);
+        mDisableLux = res.getInteger(R.integer.config_autoHbmDisableLux);
+        mEnableDwell = res.getInteger(R.integer.config_autoHbmEnableDwellMs);
+        mDisableDwell = res.getInteger(R.integer.config_autoHbmDisableDwellMs);
+        mMinOnTime = res.getInteger(R.integer.config_autoHbmMinOnTimeMs);
+        mSamplingPeriodUs = res.getInteger(R.integer.config_autoHbmSamplingPeriodUs);
+        mMaxReportLatencyUs = res.getInteger(R.integer.config_autoHbmMaxReportLatencyUs);
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        registerReceiver(mScreenStateReceiver, filter);
+
+        if (getSystemService(PowerManager.class).isInteractive()) {
+            startListening();
+        }
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        unregisterReceiver(mScreenStateReceiver);
+        stopListening();
+        mPrefs.flush();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private void startListening() {
+        if (mListening || mLightSensor == null) {
+            return;
+        }
+        mAboveSince = -1;
+        mBelowSince = -1;
+        // A low rate plus a batching latency lets the sensor hub collect
+        // several samples before it has to interrupt the AP.
+        mListening = mSensorManager.registerListener(this, mLightSensor,
+                mSamplingPeriodUs, mMaxReportLatencyUs);
+    }
+
+    private void stopListening() {
+        if (!mListening) {
+            return;
+        }
+        mSensorManager.unregisterListener(this);
+        mListening = false;
+        if (mHbmEnabled) {
+            setHbm(false, SystemClock.elapsedRealtime());
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        final float lux = event.values[0];
+        // Batched events arrive late, so use the time the sample was taken.
+        final long now = event.timestamp / 1000000L;
+
+        if (lux >= mEnableLux) {
+            mBelowSince = -1;
+            if (mAboveSince < 0) {
+                mAboveSince = now;
+            }
+            if (!mHbmEnabled && now - mAboveSince >= mEnableDwell) {
+                setHbm(true, now);
+            }
+        } else if (lux <= mDisableLux) {
+            mAboveSince = -1;
+            if (mBelowSince < 0) {
+                mBelowSince = now;
+            }
+            if (mHbmEnabled && now - mBelowSince >= mDisableDwell
+                    && now - mEnabledSince >= mMinOnTime) {
+                setHbm(false, now);
+            }
+        } else {
+            mAboveSince = -1;
+            mBelowSince = -1;
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
+    private void setHbm(boolean enabled, long now) {
+        // Never override a manually enabled HBM
+        if (mPrefs.getBoolean(Constants.KEY_HBM_SWITCH, false)) {
+            mHbmEnabled = false;
+            return;
+        }
+        if (DEBUG) Log.d(TAG, "setHbm: " + enabled);
+
+        HBMModeSwitch.setEnabled(enabled);
+        mHbmEnabled = enabled;
+
+        SettingsStore.Editor editor = mPrefs.edit();
+        if (enabled) {
+            mEnabledSince = now;
+            editor.putLong(KEY_TOGGLE_COUNT, mPrefs.getLong(KEY_TOGGLE_COUNT, 0) + 1);
+        } else {
+            editor.putLong(KEY_ON_TIME, mPrefs.getLong(KEY_ON_TIME, 0)
+                    + Math.max(0, now - mEnabledSince));
+        }
+        editor.apply();
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("AutoHBMService:");
+        pw.println("  listening=" + mListening);
+        pw.println("  hbmEnabled=" + mHbmEnabled);
+        pw.println("  thresholds=" + mDisableLux + ".." + mEnableLux + " lux");
+        pw.println("  toggleCount=" + mPrefs.getLong(KEY_TOGGLE_COUNT, 0));
+        pw.println("  onTimeMs=" + mPrefs.getLong(KEY_ON_TIME, 0));
+    }
+}
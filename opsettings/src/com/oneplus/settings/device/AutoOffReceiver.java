@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Turns a feature off once its auto-off alarm went off, also if the
+ * process that started the timer is gone by now.
+ */
+public class AutoOffReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final int feature = intent.getIntExtra(AutoOffScheduler.EXTRA_FEATURE, -1);
+        if (feature != AutoOffScheduler.FEATURE_HBM) {
+            return;
+        }
+        AutoOffScheduler.get(context).onBroadcastReceived(feature);
+        DeviceState.onHbmAutoOffExpired(context);
+        SettingsStore.get(context).flush();
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Turns power hungry features off after a while.
+ *
+ * Each feature owns one alarm, so starting a feature's timer again
+ * replaces its pending alarm instead of adding one. The alarms wake the
+ * device, otherwise a feature left on in a bag would only be turned off
+ * once something else woke it up.
+ *
+ * HBM is saved in the settings store, so its alarm is a broadcast to
+ * AutoOffReceiver that still arrives if this process died meanwhile. The
+ * torch belongs to the key handler in the system server and uses an
+ * in-process listener instead.
+ *
+ * The timeouts come from the overlay and are fixed for a build.
+ */
+public final class AutoOffScheduler {
+
+    private static final String TAG = "AutoOffScheduler";
+
+    static final String ACTION_AUTO_OFF = "com.oneplus.settings.device.AUTO_OFF";
+    static final String EXTRA_FEATURE = "feature";
+
+    public static final int FEATURE_HBM = 0;
+    public static final int FEATURE_TORCH = 1;
+    private static final int FEATURE_COUNT = 2;
+
+    private static final String[] NAMES = {
+        "hbm",
+        "torch"
+    };
+
+    // Whether a feature's alarm is delivered to AutoOffReceiver
+    private static final boolean[] BROADCAST = {
+        true,
+        false
+    };
+
+    private static AutoOffScheduler sInstance;
+
+    private final Context mContext;
+    private final AlarmManager mAlarmManager;
+    private final Handler mHandler;
+    private final Timer[] mTimers = new Timer[FEATURE_COUNT];
+
+    public static synchronized AutoOffScheduler get(Context context) {
+        if (sInstance == null) {
+            sInstance = new AutoOffScheduler(context);
+        }
+        return sInstance;
+    }
+
+    private AutoOffScheduler(Context context) {
+        mContext = context;
+        mAlarmManager = context.getSystemService(AlarmManager.class);
+        mHandler = new Handler(Looper.getMainLooper());
+        for (int i = 0; i < FEATURE_COUNT; i++) {
+            mTimers[i] = new Timer(i);
+        }
+    }
+
+    /**
+     * Returns the configured timeout of a feature in milliseconds, 0 if it
+     * never turns off on its own. Also works from the key handler running
+     * in the system server.
+     */
+    public static long getTimeout(Context context, int feature) {
+        Resources res = Utils.getPackageResources(context);
+        if (res == null) {
+            return 0;
+        }
+        switch (feature) {
+            case FEATURE_HBM:
+                return res.getInteger(R.integer.config_hbmAutoOffMs);
+            case FEATURE_TORCH:
+                return res.getInteger(R.integer.config_torchAutoOffMs);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Sets the timeout of a feature and what turns it off. The callback
+     * runs on the main thread. Features delivered to AutoOffReceiver are
+     * turned off there and take no callback.
+     */
+    public synchronized void setTimeout(int feature, long timeout, Runnable onExpired) {
+        Timer timer = mTimers[feature];
+        timer.mTimeout = timeout;
+        timer.mOnExpired = onExpired;
+        if (timeout <= 0) {
+            cancel(feature);
+        }
+    }
+
+    public synchronized long getTimeout(int feature) {
+        return mTimers[feature].mTimeout;
+    }
+
+    /**
+     * Starts or restarts the timer of a feature with its full timeout.
+     */
+    public void start(int feature) {
+        start(feature, getTimeout(feature));
+    }
+
+    /**
+     * Starts or restarts the timer of a feature, e.g. with what was left of
+     * it before a reboot.
+     */
+    public synchronized void start(int feature, long delay) {
+        Timer timer = mTimers[feature];
+        if (timer.mTimeout <= 0 || (!BROADCAST[feature] && timer.mOnExpired == null)) {
+            return;
+        }
+        timer.mDeadline = SystemClock.elapsedRealtime() + Math.max(0, delay);
+        // Setting the same listener or pending intent again replaces its alarm
+        if (BROADCAST[feature]) {
+            mAlarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, timer.mDeadline,
+                    getPendingIntent(feature));
+        } else {
+            mAlarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, timer.mDeadline,
+                    TAG + ":" + NAMES[feature], timer, mHandler);
+        }
+    }
+
+    public synchronized void cancel(int feature) {
+        Timer timer = mTimers[feature];
+        if (BROADCAST[feature]) {
+            // The alarm may be left from before this process started
+            timer.mDeadline = 0;
+            mAlarmManager.cancel(getPendingIntent(feature));
+            return;
+        }
+        if (timer.mDeadline == 0) {
+            return;
+        }
+        timer.mDeadline = 0;
+        mAlarmManager.cancel(timer);
+    }
+
+    /**
+     * Called by AutoOffReceiver once a broadcast alarm went off.
+     */
+    synchronized void onBroadcastReceived(int feature) {
+        mTimers[feature].mDeadline = 0;
+        Log.i(TAG, "Turning " + NAMES[feature] + " off after "
+                + mTimers[feature].mTimeout + "ms");
+    }
+
+    private PendingIntent getPendingIntent(int feature) {
+        Intent intent = new Intent(ACTION_AUTO_OFF);
+        intent.setClass(mContext, AutoOffReceiver.class);
+        intent.putExtra(EXTRA_FEATURE, feature);
+        return PendingIntent.getBroadcast(mContext, feature, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private void onExpired(Timer timer) {
+        final Runnable onExpired;
+        synchronized (this) {
+            if (timer.mDeadline == 0) {
+                return;
+            }
+            timer.mDeadline = 0;
+            onExpired = timer.mOnExpired;
+        }
+        Log.i(TAG, "Turning " + NAMES[timer.mFeature] + " off after "
+                + timer.mTimeout + "ms");
+        onExpired.run();
+    }
+
+    private final class Timer implements AlarmManager.OnAlarmListener {
+
+        private final int mFeature;
+        private long mTimeout;
+        private long mDeadline;
+        private Runnable mOnExpired;
+
+        private Timer(int feature) {
+            mFeature = feature;
+        }
+
+        @Override
+        public void onAlarm() {
+            onExpired(this);
+        }
+    }
+}
@@ -22,6 +22,8 @@ import android.database.MatrixCursor;
 import android.provider.SearchIndexableResource;
 import android.provider.SearchIndexablesProvider;
 
+import com.oneplus.settings.device.utils.DeviceNode;
+
 import static android.provider.SearchIndexablesContract.COLUMN_INDEX_XML_RES_CLASS_NAME;
 import static android.provider.SearchIndexablesContract.COLUMN_INDEX_XML_RES_ICON_RESID;
 import static android.provider.SearchIndexablesContract.COLUMN_INDEX_XML_RES_INTENT_ACTION;
@@ -79,6 +81,13 @@ public class ConfigPanelSearchIndexablesProvider extends SearchIndexablesProvide
     @Override
     public Cursor queryNonIndexableKeys(String[] projection) {
         MatrixCursor cursor = new MatrixCursor(NON_INDEXABLES_KEYS_COLUMNS);
+        // Preferences of missing nodes are removed from the settings page
+        for (int i = 0; i < DeviceNode.count(); i++) {
+            DeviceNode node = DeviceNode.get(i);
+            if (!node.isReadable()) {
+                cursor.addRow(new Object[] { node.getKey() });
+            }
+        }
         return cursor;
     }
 }
@@ -24,9 +24,12 @@ import android.preference.Preference;
 import android.preference.Preference.OnPreferenceChangeListener;
 import android.preference.PreferenceManager;
 
+import com.android.internal.annotations.VisibleForTesting;
+
 public class DCIModeSwitch implements OnPreferenceChangeListener {
 
-    private static final String FILE = "/sys/devices/virtual/graphics/fb0/dci_p3";
+    @VisibleForTesting
+    static final String FILE = "/sys/devices/virtual/graphics/fb0/dci_p3";
 
     public static String getFile() {
         if (Utils.fileWritable(FILE)) {
@@ -18,8 +18,9 @@ package com.oneplus.settings.device;
 
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.res.Resources;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
 import android.os.Bundle;
 import android.os.SystemProperties;
 import android.os.UserHandle;
@@ -32,13 +33,15 @@ import android.support.v7.preference.Preference.OnPreferenceChangeListener;
 import android.support.v7.preference.PreferenceCategory;
 import android.support.v7.preference.PreferenceGroup;
 import android.text.TextUtils;
+import android.text.format.DateFormat;
 import android.view.MenuItem;
 import android.util.Log;
 
 import com.oneplus.settings.device.utils.Constants;
-import com.oneplus.settings.device.utils.FileUtils;
+import com.oneplus.settings.device.utils.DeviceNode;
 
 import java.util.Arrays;
+import java.util.Calendar;
 
 public class DeviceSettings extends PreferenceFragment
         implements OnPreferenceChangeListener {
@@ -48,8 +51,11 @@ public class DeviceSettings extends PreferenceFragment
     private static final String KEY_HAPTIC_FEEDBACK = "touchscreen_gesture_haptic_feedback";
     private static final String SPECTRUM_KEY = "spectrum";
     private static final String SPECTRUM_CATEGORY_KEY = "spectrum_category";
-    private static final String SPECTRUM_SYSTEM_PROPERTY = "persist.spectrum.profile";
 
+    private static final int NIGHT_SCHEDULE_STEP_MINUTES = 30;
+
+    private SwitchPreference mAutoHbm;
+    private GestureRegistry mGestures;
     private SwitchPreference mHapticFeedback;
     private ListPreference mSpectrum;
     private PreferenceCategory mSpectrumCategory;
@@ -57,6 +63,7 @@ public class DeviceSettings extends PreferenceFragment
     @Override
     public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
 
+        getPreferenceManager().setPreferenceDataStore(SettingsStore.get(getContext()));
         addPreferencesFromResource(R.xml.device_settings);
         getActivity().getActionBar().setDisplayHomeAsUpEnabled(true);
 
@@ -64,9 +71,27 @@ public class DeviceSettings extends PreferenceFragment
         mHapticFeedback.setOnPreferenceChangeListener(this);
         mHapticFeedback.setChecked(Settings.System.getInt(getActivity().getContentResolver(), KEY_HAPTIC_FEEDBACK, 1) != 0);
 
+        mAutoHbm = (SwitchPreference) findPreference(Constants.KEY_AUTO_HBM_SWITCH);
+        if (HBMModeSwitch.isSupported()) {
+            mAutoHbm.setOnPreferenceChangeListener(this);
+        } else {
+            removePref(mAutoHbm);
+        }
+
+        initNightSchedulePreferences();
+        initGestureActionPreferences();
+
+        Preference pocketMode = findPreference(Constants.KEY_POCKET_MODE);
+        SensorManager sm = getContext().getSystemService(SensorManager.class);
+        if (sm.getDefaultSensor(Sensor.TYPE_PROXIMITY, true) != null) {
+            pocketMode.setOnPreferenceChangeListener(this);
+        } else {
+            removePref(pocketMode);
+        }
+
         mSpectrum = (ListPreference) findPreference(SPECTRUM_KEY);
         if( mSpectrum != null ) {
-            mSpectrum.setValue(SystemProperties.get(SPECTRUM_SYSTEM_PROPERTY, "0"));
+            mSpectrum.setValue(SystemProperties.get(Constants.SPECTRUM_SYSTEM_PROPERTY, "0"));
             mSpectrum.setOnPreferenceChangeListener(this);
         }
 
@@ -83,6 +108,67 @@ public class DeviceSettings extends PreferenceFragment
         }
     }
 
+    private void initGestureActionPreferences() {
+        PreferenceCategory category = (PreferenceCategory) findPreference(
+                Constants.GESTURE_ACTIONS_CATEGORY_KEY);
+        if (!Startup.hasTouchscreenGestures()) {
+            getPreferenceScreen().removePreference(category);
+            return;
+        }
+        mGestures = GestureRegistry.load(getContext());
+        for (int i = 0; i < mGestures.size(); i++) {
+            String key = mGestures.getActionKey(i);
+            if (!TextUtils.isEmpty(key)) {
+                registerPreferenceListener(key);
+            }
+        }
+    }
+
+    private void initNightSchedulePreferences() {
+        final int count = 24 * 60 / NIGHT_SCHEDULE_STEP_MINUTES;
+        String[] entries = new String[count];
+        String[] values = new String[count];
+        java.text.DateFormat format = DateFormat.getTimeFormat(getContext());
+        Calendar c = Calendar.getInstance();
+        for (int i = 0; i < count; i++) {
+            int minutes = i * NIGHT_SCHEDULE_STEP_MINUTES;
+            c.set(Calendar.HOUR_OF_DAY, minutes / 60);
+            c.set(Calendar.MINUTE, minutes % 60);
+            entries[i] = format.format(c.getTime());
+            values[i] = String.valueOf(minutes);
+        }
+        updateSliderPreference(Constants.KEY_NIGHT_SCHEDULE_START, entries, values);
+        updateSliderPreference(Constants.KEY_NIGHT_SCHEDULE_END, entries, values);
+
+        registerPreferenceListener(Constants.KEY_NIGHT_SCHEDULE);
+        registerPreferenceListener(Constants.KEY_NIGHT_SCHEDULE_START);
+        registerPreferenceListener(Constants.KEY_NIGHT_SCHEDULE_END);
+        registerPreferenceListener(Constants.KEY_NIGHT_SCHEDULE_MODE);
+
+        ListPreference schedule = (ListPreference) findPreference(Constants.KEY_NIGHT_SCHEDULE);
+        updateNightScheduleDependents(schedule.getValue());
+    }
+
+    private void updateNightScheduleDependents(String schedule) {
+        final int value = Integer.parseInt(schedule);
+        final boolean custom = value == NightModeScheduler.SCHEDULE_CUSTOM;
+        findPreference(Constants.KEY_NIGHT_SCHEDULE_START).setEnabled(custom);
+        findPreference(Constants.KEY_NIGHT_SCHEDULE_END).setEnabled(custom);
+        findPreference(Constants.KEY_NIGHT_SCHEDULE_MODE).setEnabled(
+                value != NightModeScheduler.SCHEDULE_OFF);
+    }
+
+    private void updateNightSchedule() {
+        // The new value is only persisted after the change listener returns
+        final Context context = getContext().getApplicationContext();
+        getListView().post(new Runnable() {
+            @Override
+            public void run() {
+                NightModeScheduler.update(context);
+            }
+        });
+    }
+
     private void initNotificationSliderPreference() {
         registerPreferenceListener(Constants.NOTIF_SLIDER_USAGE_KEY);
         registerPreferenceListener(Constants.NOTIF_SLIDER_ACTION_TOP_KEY);
@@ -109,13 +195,43 @@ public class DeviceSettings extends PreferenceFragment
             return true;
         }
 
+        if (Constants.KEY_AUTO_HBM_SWITCH.equals(key)) {
+            AutoHBMService.update(getActivity(), (Boolean) newValue);
+            return true;
+        }
+
+        if (Constants.KEY_POCKET_MODE.equals(key)) {
+            GestureService.update(getActivity(), (Boolean) newValue);
+            return true;
+        }
+
         if (SPECTRUM_KEY.equals(key)) {
             strvalue = (String) newValue;
-            SystemProperties.set(SPECTRUM_SYSTEM_PROPERTY, strvalue);
+            SystemProperties.set(Constants.SPECTRUM_SYSTEM_PROPERTY, strvalue);
+            return true;
+        }
+
+        if (mGestures != null && mGestures.isActionKey(key)) {
+            int[] actions = mGestures.getSavedActions(SettingsStore.get(getContext()));
+            for (int i = 0; i < mGestures.size(); i++) {
+                if (key.equals(mGestures.getActionKey(i))) {
+                    actions[i] = Integer.parseInt((String) newValue);
+                }
+            }
+            GestureRegistry.sendUpdateBroadcast(getActivity().getApplicationContext(), actions);
             return true;
         }
 
         switch (key) {
+            case Constants.KEY_NIGHT_SCHEDULE:
+                updateNightScheduleDependents((String) newValue);
+                updateNightSchedule();
+                return true;
+            case Constants.KEY_NIGHT_SCHEDULE_START:
+            case Constants.KEY_NIGHT_SCHEDULE_END:
+            case Constants.KEY_NIGHT_SCHEDULE_MODE:
+                updateNightSchedule();
+                return true;
             case Constants.NOTIF_SLIDER_USAGE_KEY:
                 return handleSliderUsageChange((String) newValue) &&
                         handleSliderUsageDefaultsChange((String) newValue) &&
@@ -130,47 +246,38 @@ public class DeviceSettings extends PreferenceFragment
                 break;
         }
 
-        String node = Constants.sBooleanNodePreferenceMap.get(key);
-        if (!TextUtils.isEmpty(node) && FileUtils.isFileWritable(node)) {
-            Boolean value = (Boolean) newValue;
-            FileUtils.writeLine(node, value ? "1" : "0");
-            return true;
+        DeviceNode node = DeviceNode.fromKey(key);
+        if (node == null || !node.isWritable()) {
+            return false;
         }
-
-        node = Constants.sStringNodePreferenceMap.get(key);
-        if (!TextUtils.isEmpty(node) && FileUtils.isFileWritable(node)) {
-            FileUtils.writeLine(node, (String) newValue);
-            return true;
+        if (node.getType() == DeviceNode.TYPE_BOOLEAN) {
+            DeviceState.get(getContext()).setGestureEnabled(key, (Boolean) newValue);
+        } else {
+            node.write((String) newValue);
         }
-        return false;
+        return true;
     }
 
     @Override
     public void addPreferencesFromResource(int preferencesResId) {
         super.addPreferencesFromResource(preferencesResId);
         // Initialize node preferences
-        for (String pref : Constants.sBooleanNodePreferenceMap.keySet()) {
-            SwitchPreference b = (SwitchPreference) findPreference(pref);
-            if (b == null) continue;
-            String node = Constants.sBooleanNodePreferenceMap.get(pref);
-            if (FileUtils.isFileReadable(node)) {
-                String curNodeValue = FileUtils.readOneLine(node);
-                b.setChecked(curNodeValue.equals("1"));
-                b.setOnPreferenceChangeListener(this);
-            } else {
-                removePref(b);
+        for (int i = 0; i < DeviceNode.count(); i++) {
+            DeviceNode node = DeviceNode.get(i);
+            Preference pref = findPreference(node.getKey());
+            if (pref == null) continue;
+            if (!node.isReadable()) {
+                removePref(pref);
+                continue;
             }
-        }
-        for (String pref : Constants.sStringNodePreferenceMap.keySet()) {
-            ListPreference l = (ListPreference) findPreference(pref);
-            if (l == null) continue;
-            String node = Constants.sStringNodePreferenceMap.get(pref);
-            if (FileUtils.isFileReadable(node)) {
-                l.setValue(FileUtils.readOneLine(node));
-                l.setOnPreferenceChangeListener(this);
+            if (node.getType() == DeviceNode.TYPE_BOOLEAN) {
+                // The node may be disarmed while the screen is on, so the
+                // saved preference is what the user actually chose
+                ((SwitchPreference) pref).setChecked(node.isEnabled(getContext()));
             } else {
-                removePref(l);
+                ((ListPreference) pref).setValue(node.readValue());
             }
+            pref.setOnPreferenceChangeListener(this);
         }
     }
 
@@ -197,47 +304,18 @@ public class DeviceSettings extends PreferenceFragment
     }
 
     private boolean handleSliderUsageChange(String newValue) {
-        switch (newValue) {
-            case Constants.NOTIF_SLIDER_FOR_NOTIFICATION:
-                return updateSliderActions(
-                        R.array.notification_slider_mode_entries,
-                        R.array.notification_slider_mode_entry_values);
-            case Constants.NOTIF_SLIDER_FOR_FLASHLIGHT:
-                return updateSliderActions(
-                        R.array.notification_slider_flashlight_entries,
-                        R.array.notification_slider_flashlight_entry_values);
-            case Constants.NOTIF_SLIDER_FOR_BRIGHTNESS:
-                return updateSliderActions(
-                        R.array.notification_slider_brightness_entries,
-                        R.array.notification_slider_brightness_entry_values);
-            case Constants.NOTIF_SLIDER_FOR_ROTATION:
-                return updateSliderActions(
-                        R.array.notification_slider_rotation_entries,
-                        R.array.notification_slider_rotation_entry_values);
-            case Constants.NOTIF_SLIDER_FOR_RINGER:
-                return updateSliderActions(
-                        R.array.notification_slider_ringer_entries,
-                        R.array.notification_slider_ringer_entry_values);
-            case Constants.NOTIF_SLIDER_FOR_NOTIFICATION_RINGER:
-                return updateSliderActions(
-                        R.array.notification_ringer_slider_mode_entries,
-                        R.array.notification_ringer_slider_mode_entry_values);
-            default:
-                return false;
-        }
-    }
-
-    private boolean handleSliderUsageDefaultsChange(String newValue) {
-        int defaultsResId = getDefaultResIdForUsage(newValue);
-        if (defaultsResId == 0) {
+        int usage = SliderCatalog.fromValue(newValue);
+        if (!SliderCatalog.isValidUsage(usage)) {
             return false;
         }
-        return updateSliderActionDefaults(defaultsResId);
-    }
-
-    private boolean updateSliderActions(int entriesResId, int entryValuesResId) {
-        String[] entries = getResources().getStringArray(entriesResId);
-        String[] entryValues = getResources().getStringArray(entryValuesResId);
+        int[] actions = SliderCatalog.getActions(usage);
+        int[] labels = SliderCatalog.getActionLabels(usage);
+        CharSequence[] entries = new CharSequence[actions.length];
+        CharSequence[] entryValues = new CharSequence[actions.length];
+        for (int i = 0; i < actions.length; i++) {
+            entries[i] = getText(labels[i]);
+            entryValues[i] = SliderCatalog.toValue(actions[i]);
+        }
         return updateSliderPreference(Constants.NOTIF_SLIDER_ACTION_TOP_KEY,
                 entries, entryValues) &&
             updateSliderPreference(Constants.NOTIF_SLIDER_ACTION_MIDDLE_KEY,
@@ -246,22 +324,26 @@ public class DeviceSettings extends PreferenceFragment
                     entries, entryValues);
     }
 
-    private boolean updateSliderActionDefaults(int defaultsResId) {
-        String[] defaults = getResources().getStringArray(defaultsResId);
-        if (defaults.length != 3) {
+    private boolean handleSliderUsageDefaultsChange(String newValue) {
+        int usage = SliderCatalog.fromValue(newValue);
+        if (!SliderCatalog.isValidUsage(usage)) {
+            return false;
+        }
+        int[] defaults = SliderCatalog.getDefaultActions(getContext(), usage);
+        if (defaults == null) {
             return false;
         }
 
         return updateSliderPreferenceValue(Constants.NOTIF_SLIDER_ACTION_TOP_KEY,
-                defaults[0]) &&
+                SliderCatalog.toValue(defaults[0])) &&
             updateSliderPreferenceValue(Constants.NOTIF_SLIDER_ACTION_MIDDLE_KEY,
-                    defaults[1]) &&
+                    SliderCatalog.toValue(defaults[1])) &&
             updateSliderPreferenceValue(Constants.NOTIF_SLIDER_ACTION_BOTTOM_KEY,
-                    defaults[2]);
+                    SliderCatalog.toValue(defaults[2]));
     }
 
     private boolean updateSliderPreference(CharSequence key,
-            String[] entries, String[] entryValues) {
+            CharSequence[] entries, CharSequence[] entryValues) {
         ListPreference pref = (ListPreference) findPreference(key);
         if (pref == null) {
             return false;
@@ -287,32 +369,35 @@ public class DeviceSettings extends PreferenceFragment
 
         p = (ListPreference) findPreference(
                 Constants.NOTIF_SLIDER_ACTION_TOP_KEY);
-        actions[0] = Integer.parseInt(p.getValue());
+        actions[0] = SliderCatalog.fromValue(p.getValue());
 
         p = (ListPreference) findPreference(
                 Constants.NOTIF_SLIDER_ACTION_MIDDLE_KEY);
-        actions[1] = Integer.parseInt(p.getValue());
+        actions[1] = SliderCatalog.fromValue(p.getValue());
 
         p = (ListPreference) findPreference(
                 Constants.NOTIF_SLIDER_ACTION_BOTTOM_KEY);
-        actions[2] = Integer.parseInt(p.getValue());
+        actions[2] = SliderCatalog.fromValue(p.getValue());
 
         return actions;
     }
 
     private boolean notifySliderUsageChange(String usage) {
-        sendUpdateBroadcast(getActivity().getApplicationContext(), Integer.parseInt(usage),
-                getCurrentSliderActions());
+        sendUpdateBroadcast(getActivity().getApplicationContext(),
+                SliderCatalog.fromValue(usage), getCurrentSliderActions());
         return true;
     }
 
     private boolean notifySliderActionChange(int index, String value) {
         ListPreference p = (ListPreference) findPreference(
                 Constants.NOTIF_SLIDER_USAGE_KEY);
-        int usage = Integer.parseInt(p.getValue());
+        int usage = SliderCatalog.fromValue(p.getValue());
 
         int[] actions = getCurrentSliderActions();
-        actions[index] = Integer.parseInt(value);
+        actions[index] = SliderCatalog.fromValue(value);
+        if (!SliderCatalog.isValid(usage, actions)) {
+            return false;
+        }
 
         sendUpdateBroadcast(getActivity().getApplicationContext(), usage, actions);
         return true;
@@ -331,61 +416,44 @@ public class DeviceSettings extends PreferenceFragment
 
     public static void restoreSliderStates(Context context) {
         Resources res = context.getResources();
-        SharedPreferences prefs = context.getSharedPreferences(
-                context.getPackageName() + "_preferences", Context.MODE_PRIVATE);
+        SettingsStore prefs = SettingsStore.get(context);
 
-        String usage = prefs.getString(Constants.NOTIF_SLIDER_USAGE_KEY,
-                res.getString(R.string.config_defaultNotificationSliderUsage));
-
-        int defaultsResId = getDefaultResIdForUsage(usage);
-        if (defaultsResId == 0) {
+        int usage = SliderCatalog.fromValue(prefs.getString(Constants.NOTIF_SLIDER_USAGE_KEY,
+                res.getString(R.string.config_defaultNotificationSliderUsage)));
+        if (!SliderCatalog.isValidUsage(usage)) {
             return;
         }
 
-        String[] defaults = res.getStringArray(defaultsResId);
-        if (defaults.length != 3) {
+        int[] defaults = SliderCatalog.getDefaultActions(context, usage);
+        if (defaults == null) {
             return;
         }
 
-        String actionTop = prefs.getString(
-                Constants.NOTIF_SLIDER_ACTION_TOP_KEY, defaults[0]);
-
-        String actionMiddle = prefs.getString(
-                Constants.NOTIF_SLIDER_ACTION_MIDDLE_KEY, defaults[1]);
-
-        String actionBottom = prefs.getString(
-                Constants.NOTIF_SLIDER_ACTION_BOTTOM_KEY, defaults[2]);
+        int[] actions = new int[] {
+            getSavedAction(prefs, Constants.NOTIF_SLIDER_ACTION_TOP_KEY, defaults[0]),
+            getSavedAction(prefs, Constants.NOTIF_SLIDER_ACTION_MIDDLE_KEY, defaults[1]),
+            getSavedAction(prefs, Constants.NOTIF_SLIDER_ACTION_BOTTOM_KEY, defaults[2])
+        };
+        if (!SliderCatalog.isValid(usage, actions)) {
+            // Saved by a build with other actions, start over from the defaults
+            actions = defaults;
+        }
 
         prefs.edit()
-            .putString(Constants.NOTIF_SLIDER_USAGE_KEY, usage)
-            .putString(Constants.NOTIF_SLIDER_ACTION_TOP_KEY, actionTop)
-            .putString(Constants.NOTIF_SLIDER_ACTION_MIDDLE_KEY, actionMiddle)
-            .putString(Constants.NOTIF_SLIDER_ACTION_BOTTOM_KEY, actionBottom)
-            .commit();
-
-        sendUpdateBroadcast(context, Integer.parseInt(usage), new int[] {
-            Integer.parseInt(actionTop),
-            Integer.parseInt(actionMiddle),
-            Integer.parseInt(actionBottom)
-        });
+            .putString(Constants.NOTIF_SLIDER_USAGE_KEY, String.valueOf(usage))
+            .putString(Constants.NOTIF_SLIDER_ACTION_TOP_KEY,
+                    SliderCatalog.toValue(actions[0]))
+            .putString(Constants.NOTIF_SLIDER_ACTION_MIDDLE_KEY,
+                    SliderCatalog.toValue(actions[1]))
+            .putString(Constants.NOTIF_SLIDER_ACTION_BOTTOM_KEY,
+                    SliderCatalog.toValue(actions[2]))
+            .apply();
+
+        sendUpdateBroadcast(context, usage, actions);
     }
 
-    private static int getDefaultResIdForUsage(String usage) {
-        switch (usage) {
-            case Constants.NOTIF_SLIDER_FOR_NOTIFICATION:
-                return R.array.config_defaultSliderActionsForNotification;
-            case Constants.NOTIF_SLIDER_FOR_FLASHLIGHT:
-                return R.array.config_defaultSliderActionsForFlashlight;
-            case Constants.NOTIF_SLIDER_FOR_BRIGHTNESS:
-                return R.array.config_defaultSliderActionsForBrightness;
-            case Constants.NOTIF_SLIDER_FOR_ROTATION:
-                return R.array.config_defaultSliderActionsForRotation;
-            case Constants.NOTIF_SLIDER_FOR_RINGER:
-                return R.array.config_defaultSliderActionsForRinger;
-            case Constants.NOTIF_SLIDER_FOR_NOTIFICATION_RINGER:
-                return R.array.config_defaultSliderActionsForNotificationRinger;
-            default:
-                return 0;
-        }
+    private static int getSavedAction(SettingsStore prefs, String key, int defaultAction) {
+        String value = prefs.getString(key, null);
+        return value != null ? SliderCatalog.fromValue(value) : defaultAction;
     }
 }
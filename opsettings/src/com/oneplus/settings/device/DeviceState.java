@@ -0,0 +1,450 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import com.oneplus.settings.device.utils.Constants;
+import com.oneplus.settings.device.utils.DeviceNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cached view of the display and gesture nodes.
+ *
+ * The nodes are read once on a background thread. Afterwards readers only
+ * look at the cache, and writers update it optimistically before the node
+ * and preference writes run on the background thread. All public methods
+ * must be called from the main thread.
+ */
+public final class DeviceState {
+
+    public interface Listener {
+        void onDeviceStateChanged();
+    }
+
+    public static final int PANEL_MODE_OFF = 0;
+    public static final int PANEL_MODE_SRGB = 1;
+    public static final int PANEL_MODE_DCI = 2;
+    public static final int PANEL_MODE_NIGHT = 3;
+    public static final int PANEL_MODE_ONEPLUS = 4;
+    private static final int PANEL_MODE_COUNT = 5;
+
+    private static DeviceState sInstance;
+
+    private final Context mContext;
+    private final Handler mMainHandler;
+    private final Handler mIoHandler;
+    private final PanelTransition mTransition;
+    private final AutoOffScheduler mAutoOff;
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    private boolean mLoaded;
+    private boolean mHbmSupported;
+    private boolean mHbm;
+    private int mPanelMode = PANEL_MODE_OFF;
+    private final boolean[] mPanelModeSupported = new boolean[PANEL_MODE_COUNT];
+    private final boolean[] mGestures = new boolean[DeviceNode.count()];
+    private final boolean[] mGestureSupported = new boolean[DeviceNode.count()];
+
+    public static synchronized DeviceState get(Context context) {
+        if (sInstance == null) {
+            sInstance = new DeviceState(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private DeviceState(Context context) {
+        mContext = context;
+        FeatureCounters.init(context);
+        mMainHandler = new Handler(Looper.getMainLooper());
+        HandlerThread thread = new HandlerThread("DeviceStateIO",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mIoHandler = new Handler(thread.getLooper());
+
+        Resources res = context.getResources();
+        mTransition = new PanelTransition(
+                res.getString(R.string.config_panelCalibrationNode),
+                res.getInteger(R.integer.config_panelCalibrationMax),
+                res.getInteger(R.integer.config_panelTransitionDurationMs),
+                res.getInteger(R.integer.config_panelTransitionFrameMs),
+                res.getInteger(R.integer.config_panelTransitionDimPercent),
+                mIoHandler);
+
+        // AutoOffReceiver turns HBM off once the timer expires
+        mAutoOff = AutoOffScheduler.get(context);
+        mAutoOff.setTimeout(AutoOffScheduler.FEATURE_HBM,
+                AutoOffScheduler.getTimeout(context, AutoOffScheduler.FEATURE_HBM), null);
+
+        mIoHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    private void load() {
+        final boolean hbmSupported = HBMModeSwitch.isSupported();
+        final boolean hbm = HBMModeSwitch.isCurrentlyEnabled(mContext);
+        final long hbmRemaining = getHbmAutoOffRemaining(getPrefs());
+        final boolean[] supported = new boolean[PANEL_MODE_COUNT];
+        supported[PANEL_MODE_OFF] = true;
+        int mode = PANEL_MODE_OFF;
+        for (int i = PANEL_MODE_COUNT - 1; i > PANEL_MODE_OFF; i--) {
+            String file = getPanelModeFile(i);
+            supported[i] = file != null;
+            if (supported[i] && Utils.getFileValueAsBoolean(file, false)) {
+                mode = i;
+            }
+        }
+        final int panelMode = mode;
+        final boolean[] gestures = new boolean[mGestures.length];
+        final boolean[] gestureSupported = new boolean[mGestures.length];
+        for (int i = 0; i < gestures.length; i++) {
+            DeviceNode node = DeviceNode.get(i);
+            if (node.isGesture()) {
+                gestures[i] = node.isEnabled(mContext);
+                gestureSupported[i] = node.isWritable();
+            }
+        }
+
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mHbmSupported = hbmSupported;
+                mHbm = hbm;
+                mPanelMode = panelMode;
+                System.arraycopy(supported, 0, mPanelModeSupported, 0, supported.length);
+                System.arraycopy(gestures, 0, mGestures, 0, gestures.length);
+                System.arraycopy(gestureSupported, 0, mGestureSupported, 0,
+                        gestureSupported.length);
+                mLoaded = true;
+                notifyListeners();
+                // The alarm outlives this process, so only a deadline that
+                // passed while nothing was running is left to handle
+                if (hbm && hbmRemaining == 0) {
+                    setHbmEnabled(false);
+                }
+            }
+        });
+    }
+
+    public void addListener(Listener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void notifyListeners() {
+        for (int i = mListeners.size() - 1; i >= 0; i--) {
+            mListeners.get(i).onDeviceStateChanged();
+        }
+    }
+
+    public boolean isLoaded() {
+        return mLoaded;
+    }
+
+    public boolean isHbmSupported() {
+        return mHbmSupported;
+    }
+
+    public boolean isHbmEnabled() {
+        return mHbm;
+    }
+
+    /**
+     * Switches HBM and saves it as the user's choice. Enabling HBM (again)
+     * restarts its auto-off timer.
+     */
+    public void setHbmEnabled(final boolean enabled) {
+        mHbm = enabled;
+        notifyListeners();
+        final long timeout = mAutoOff.getTimeout(AutoOffScheduler.FEATURE_HBM);
+        final long deadline;
+        if (enabled && timeout > 0) {
+            mAutoOff.start(AutoOffScheduler.FEATURE_HBM);
+            deadline = System.currentTimeMillis() + timeout;
+        } else {
+            mAutoOff.cancel(AutoOffScheduler.FEATURE_HBM);
+            deadline = 0;
+        }
+        mIoHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mTransition.run(new Runnable() {
+                    @Override
+                    public void run() {
+                        HBMModeSwitch.setEnabled(enabled);
+                    }
+                });
+                // The deadline is saved with the switch so a reboot never
+                // brings back an expired HBM
+                getPrefs().edit()
+                        .putBoolean(Constants.KEY_HBM_SWITCH, enabled)
+                        .putLong(Constants.KEY_HBM_AUTO_OFF_DEADLINE, deadline)
+                        .apply();
+            }
+        });
+    }
+
+    /**
+     * Returns how long a saved HBM has left before it turns off, or -1 if
+     * it stays on.
+     */
+    static long getHbmAutoOffRemaining(SettingsStore prefs) {
+        long deadline = prefs.getLong(Constants.KEY_HBM_AUTO_OFF_DEADLINE, 0);
+        if (deadline <= 0) {
+            return -1;
+        }
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+    /**
+     * Turns off an HBM whose auto-off timer expired, unless it was switched
+     * since. Works without an instance, for a process started by the alarm.
+     */
+    static void onHbmAutoOffExpired(Context context) {
+        final SettingsStore prefs = SettingsStore.get(context);
+        if (!prefs.getBoolean(Constants.KEY_HBM_SWITCH, false)
+                || getHbmAutoOffRemaining(prefs) < 0) {
+            return;
+        }
+        HBMModeSwitch.setEnabled(false);
+        prefs.edit()
+                .putBoolean(Constants.KEY_HBM_SWITCH, false)
+                .remove(Constants.KEY_HBM_AUTO_OFF_DEADLINE)
+                .apply();
+    }
+
+    /**
+     * Resumes the auto-off timer of an HBM restored at boot.
+     */
+    void resumeHbmAutoOff(long remaining) {
+        mAutoOff.start(AutoOffScheduler.FEATURE_HBM,
+                Math.min(remaining, mAutoOff.getTimeout(AutoOffScheduler.FEATURE_HBM)));
+    }
+
+    /**
+     * Called by HBMModeSwitch after every node write, so HBM changes made
+     * outside of this class (automatic HBM, thermal throttling) keep the
+     * cache accurate.
+     */
+    static void onHbmWritten(final boolean enabled) {
+        final DeviceState state;
+        synchronized (DeviceState.class) {
+            state = sInstance;
+        }
+        if (state == null) {
+            return;
+        }
+        state.mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (state.mHbm != enabled) {
+                    state.mHbm = enabled;
+                    state.notifyListeners();
+                }
+            }
+        });
+    }
+
+    public int getPanelMode() {
+        return mPanelMode;
+    }
+
+    public boolean isPanelModeSupported(int mode) {
+        return mPanelModeSupported[mode];
+    }
+
+    public int getNextPanelMode() {
+        int mode = mPanelMode;
+        do {
+            mode = (mode + 1) % PANEL_MODE_COUNT;
+        } while (!mPanelModeSupported[mode]);
+        return mode;
+    }
+
+    /**
+     * Switches the panel mode and saves it as the user's choice.
+     */
+    public void setPanelMode(int mode) {
+        writePanelModeAsync(mode, true);
+    }
+
+    /**
+     * Switches the panel mode without touching the saved choice, e.g. for
+     * scheduled modes.
+     */
+    public void applyPanelMode(int mode) {
+        writePanelModeAsync(mode, false);
+    }
+
+    private void writePanelModeAsync(final int mode, final boolean persist) {
+        mPanelMode = mode;
+        notifyListeners();
+        mIoHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mTransition.run(new Runnable() {
+                    @Override
+                    public void run() {
+                        writePanelMode(mode);
+                    }
+                });
+                if (!persist) {
+                    return;
+                }
+                SettingsStore.Editor edit = getPrefs().edit();
+                for (int i = PANEL_MODE_OFF + 1; i < PANEL_MODE_COUNT; i++) {
+                    edit.putBoolean(getPanelModeKey(i), i == mode);
+                }
+                edit.apply();
+            }
+        });
+    }
+
+    static int getSavedPanelMode(SettingsStore prefs) {
+        for (int i = PANEL_MODE_OFF + 1; i < PANEL_MODE_COUNT; i++) {
+            if (prefs.getBoolean(getPanelModeKey(i), false)) {
+                return i;
+            }
+        }
+        return PANEL_MODE_OFF;
+    }
+
+    public static int getPanelModeTitle(int mode) {
+        switch (mode) {
+            case PANEL_MODE_SRGB:
+                return R.string.srgb_mode_title;
+            case PANEL_MODE_DCI:
+                return R.string.dci_mode_title;
+            case PANEL_MODE_NIGHT:
+                return R.string.night_mode_title;
+            case PANEL_MODE_ONEPLUS:
+                return R.string.oneplus_mode_title;
+            default:
+                return R.string.off_mode_title;
+        }
+    }
+
+    static String getPanelModeKey(int mode) {
+        switch (mode) {
+            case PANEL_MODE_SRGB:
+                return Constants.KEY_SRGB_SWITCH;
+            case PANEL_MODE_DCI:
+                return Constants.KEY_DCI_SWITCH;
+            case PANEL_MODE_NIGHT:
+                return Constants.KEY_NIGHT_SWITCH;
+            case PANEL_MODE_ONEPLUS:
+                return Constants.KEY_ONEPLUS_SWITCH;
+            default:
+                return null;
+        }
+    }
+
+    static String getPanelModeFile(int mode) {
+        switch (mode) {
+            case PANEL_MODE_SRGB:
+                return SRGBModeSwitch.getFile();
+            case PANEL_MODE_DCI:
+                return DCIModeSwitch.getFile();
+            case PANEL_MODE_NIGHT:
+                return NightModeSwitch.getFile();
+            case PANEL_MODE_ONEPLUS:
+                return OneplusModeSwitch.getFile();
+            default:
+                return null;
+        }
+    }
+
+    static void writePanelMode(int mode) {
+        // Turn the other modes off first, the panel only takes one at a time
+        for (int i = PANEL_MODE_OFF + 1; i < PANEL_MODE_COUNT; i++) {
+            if (i != mode) {
+                Utils.writeValue(getPanelModeFile(i), "0");
+            }
+        }
+        if (mode != PANEL_MODE_OFF) {
+            Utils.writeValue(getPanelModeFile(mode), "1");
+        }
+        FeatureCounters.increment(FeatureCounters.PANEL_MODE_CHANGES);
+        for (int i = PANEL_MODE_OFF; i < PANEL_MODE_COUNT; i++) {
+            if (i != mode) {
+                FeatureCounters.stopTimer(FeatureCounters.PANEL_MODE_TIME + i);
+            }
+        }
+        FeatureCounters.startTimer(FeatureCounters.PANEL_MODE_TIME + mode);
+    }
+
+    public boolean isGestureEnabled(String key) {
+        DeviceNode node = DeviceNode.fromKey(key);
+        return node != null && mGestures[node.ordinal()];
+    }
+
+    public boolean isAnyGestureEnabled() {
+        for (boolean enabled : mGestures) {
+            if (enabled) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void setGestureEnabled(String key, boolean enabled) {
+        DeviceNode node = DeviceNode.fromKey(key);
+        if (node != null && node.isGesture()) {
+            setGestureEnabled(node, enabled);
+        }
+    }
+
+    private void setGestureEnabled(final DeviceNode node, final boolean enabled) {
+        mGestures[node.ordinal()] = enabled;
+        notifyListeners();
+        mIoHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                GestureGate.writeGesture(node, enabled);
+                getPrefs().edit().putBoolean(node.getKey(), enabled).apply();
+            }
+        });
+    }
+
+    public void setAllGesturesEnabled(boolean enabled) {
+        for (int i = 0; i < DeviceNode.count(); i++) {
+            if (mGestureSupported[i]) {
+                setGestureEnabled(DeviceNode.get(i), enabled);
+            }
+        }
+    }
+
+    private SettingsStore getPrefs() {
+        return SettingsStore.get(mContext);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.service.quicksettings.Tile;
+import android.service.quicksettings.TileService;
+
+/**
+ * Base for tiles backed by {@link DeviceState}. Tiles never touch the nodes
+ * themselves: they render the cached state and hand clicks to the model,
+ * which updates optimistically and writes in the background.
+ */
+public abstract class DeviceTileService extends TileService
+        implements DeviceState.Listener {
+
+    private DeviceState mState;
+
+    protected abstract void updateTile(Tile tile, DeviceState state);
+
+    protected abstract void onClick(DeviceState state);
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mState = DeviceState.get(this);
+    }
+
+    @Override
+    public void onStartListening() {
+        super.onStartListening();
+        mState.addListener(this);
+        refreshTile();
+    }
+
+    @Override
+    public void onStopListening() {
+        mState.removeListener(this);
+        super.onStopListening();
+    }
+
+    @Override
+    public void onClick() {
+        super.onClick();
+        if (mState.isLoaded()) {
+            onClick(mState);
+        }
+    }
+
+    @Override
+    public void onDeviceStateChanged() {
+        refreshTile();
+    }
+
+    private void refreshTile() {
+        Tile tile = getQsTile();
+        if (tile == null) {
+            return;
+        }
+        if (mState.isLoaded()) {
+            updateTile(tile, mState);
+        } else {
+            tile.setState(Tile.STATE_UNAVAILABLE);
+        }
+        tile.updateTile();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.os.Trace;
+
+/**
+ * Trace sections and async slices for the key handler, the slider
+ * controllers and node I/O.
+ *
+ * Everything is emitted under the input tag, so it shows up in system
+ * traces taken with the "input" category, next to the input dispatcher.
+ * When the tag is off each call is a single flag check; callers building
+ * section names must check {@link #isEnabled} first.
+ */
+public final class DeviceTrace {
+
+    public static final long TAG = Trace.TRACE_TAG_INPUT;
+
+    private DeviceTrace() {
+        // This class is not supposed to be instantiated
+    }
+
+    public static boolean isEnabled() {
+        return Trace.isTagEnabled(TAG);
+    }
+
+    public static void begin(String name) {
+        Trace.traceBegin(TAG, name);
+    }
+
+    public static void end() {
+        Trace.traceEnd(TAG);
+    }
+
+    public static void beginAsync(String name, int cookie) {
+        Trace.asyncTraceBegin(TAG, name, cookie);
+    }
+
+    public static void endAsync(String name, int cookie) {
+        Trace.asyncTraceEnd(TAG, name, cookie);
+    }
+}
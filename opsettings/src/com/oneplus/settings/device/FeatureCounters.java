@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Environment;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.android.internal.os.BackgroundThread;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Usage and on-time counters per device feature, persisted across reboots.
+ *
+ * Counters live in a plain long array and are written out from a
+ * background thread at most once per flush interval, and on shutdown. The
+ * key handler in
+ * the system server and the app each keep their own store and file; the
+ * app's dump exports both.
+ */
+public final class FeatureCounters {
+
+    private static final String TAG = "FeatureCounters";
+
+    // Key handler
+    public static final int GESTURE_ACCEPTED = 0;
+    public static final int GESTURE_REJECTED = 1;
+    public static final int VIBRATIONS = 2;
+    public static final int TORCH_ON_TIME = 3;
+    public static final int BLINK_TIME = 4;
+    // One per slider controller, indexed by controller ID - 1
+    public static final int SLIDER_TRANSITIONS = 5;
+    private static final int SLIDER_CONTROLLER_COUNT = 6;
+
+    // App
+    public static final int HBM_TOGGLES = 11;
+    public static final int HBM_ON_TIME = 12;
+    public static final int PANEL_MODE_CHANGES = 13;
+    // One per panel mode, indexed by DeviceState.PANEL_MODE_*
+    public static final int PANEL_MODE_TIME = 14;
+    private static final int PANEL_MODE_COUNT = 5;
+
+    // Key handler wakelocks, one set of counters per WakeLockManager scope
+    public static final int WAKELOCK_GESTURE = 19;
+    public static final int WAKELOCK_PROXIMITY = 23;
+    public static final int WAKELOCK_BLINK = 27;
+    // Offsets of the counters within a set
+    public static final int WAKELOCK_ACQUIRES = 0;
+    public static final int WAKELOCK_HELD_TIME = 1;
+    public static final int WAKELOCK_SCREEN_OFF_TIME = 2;
+    public static final int WAKELOCK_TIMEOUTS = 3;
+    private static final int WAKELOCK_COUNTERS = 4;
+
+    private static final int COUNT = WAKELOCK_BLINK + WAKELOCK_COUNTERS;
+
+    private static final String[] NAMES = {
+        "gesture_accepted",
+        "gesture_rejected",
+        "vibrations",
+        "torch_on_ms",
+        "blink_ms",
+        "slider_notification",
+        "slider_flashlight",
+        "slider_brightness",
+        "slider_rotation",
+        "slider_ringer",
+        "slider_notification_ringer",
+        "hbm_toggles",
+        "hbm_on_ms",
+        "panel_mode_changes",
+        "panel_off_ms",
+        "panel_srgb_ms",
+        "panel_dci_ms",
+        "panel_night_ms",
+        "panel_oneplus_ms",
+        "wakelock_gesture_acquires",
+        "wakelock_gesture_held_ms",
+        "wakelock_gesture_screen_off_ms",
+        "wakelock_gesture_timeouts",
+        "wakelock_proximity_acquires",
+        "wakelock_proximity_held_ms",
+        "wakelock_proximity_screen_off_ms",
+        "wakelock_proximity_timeouts",
+        "wakelock_blink_acquires",
+        "wakelock_blink_held_ms",
+        "wakelock_blink_screen_off_ms",
+        "wakelock_blink_timeouts"
+    };
+
+    private static final int MAGIC = 0x4f504643; // "OPFC"
+    private static final int VERSION = 1;
+
+    private static final long FLUSH_INTERVAL = 30 * 60 * 1000L;
+
+    private static final String FILE_NAME = "feature_counters";
+    private static final String SYSTEM_DIR_NAME = "oneplus_device";
+
+    private static final long[] sCounts = new long[COUNT];
+    private static final long[] sTimerStarts = new long[COUNT];
+    private static AtomicFile sFile;
+    private static boolean sFlushPending;
+
+    private static final Runnable sFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // Shutdown is only sent to registered receivers, so the app's store
+    // registers one once it is attached
+    private static final BroadcastReceiver sShutdownReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            flush();
+        }
+    };
+
+    private FeatureCounters() {
+        // This class is not supposed to be instantiated
+    }
+
+    /**
+     * Attaches the app's store, and maps the flight recorder next to it.
+     * Anything counted before is kept.
+     */
+    public static void init(Context context) {
+        File dir = context.createDeviceProtectedStorageContext().getFilesDir();
+        if (attach(new File(dir, FILE_NAME))) {
+            context.getApplicationContext().registerReceiver(sShutdownReceiver,
+                    new IntentFilter(Intent.ACTION_SHUTDOWN));
+        }
+        FlightRecorder.init(dir);
+    }
+
+    /**
+     * Attaches the key handler's store in the system server, and maps the
+     * key handler's flight recorder.
+     */
+    public static void initSystem() {
+        attach(getSystemFile());
+        FlightRecorder.init(getSystemDir());
+    }
+
+    private static synchronized boolean attach(File file) {
+        if (sFile != null) {
+            return false;
+        }
+        file.getParentFile().mkdirs();
+        sFile = new AtomicFile(file);
+        long[] saved = read(file);
+        if (saved != null) {
+            for (int i = 0; i < COUNT; i++) {
+                sCounts[i] += saved[i];
+            }
+        }
+        return true;
+    }
+
+    static File getSystemDir() {
+        return new File(Environment.getDataSystemDeDirectory(UserHandle.USER_SYSTEM),
+                SYSTEM_DIR_NAME);
+    }
+
+    private static File getSystemFile() {
+        return new File(getSystemDir(), FILE_NAME);
+    }
+
+    public static synchronized void increment(int counter) {
+        sCounts[counter]++;
+        scheduleFlush();
+    }
+
+    public static synchronized void add(int counter, long value) {
+        sCounts[counter] += value;
+        scheduleFlush();
+    }
+
+    public static void incrementSlider(int controllerId) {
+        if (controllerId >= 1 && controllerId <= SLIDER_CONTROLLER_COUNT) {
+            increment(SLIDER_TRANSITIONS + controllerId - 1);
+        }
+    }
+
+    public static synchronized void startTimer(int counter) {
+        if (sTimerStarts[counter] == 0) {
+            sTimerStarts[counter] = SystemClock.elapsedRealtime();
+            scheduleFlush();
+        }
+    }
+
+    public static synchronized void stopTimer(int counter) {
+        if (sTimerStarts[counter] == 0) {
+            return;
+        }
+        sCounts[counter] += SystemClock.elapsedRealtime() - sTimerStarts[counter];
+        sTimerStarts[counter] = 0;
+        scheduleFlush();
+    }
+
+    private static void scheduleFlush() {
+        if (sFlushPending || sFile == null) {
+            return;
+        }
+        sFlushPending = true;
+        BackgroundThread.getHandler().postDelayed(sFlushRunnable, FLUSH_INTERVAL);
+    }
+
+    public static void flush() {
+        final long[] counts = new long[COUNT];
+        final AtomicFile file;
+        synchronized (FeatureCounters.class) {
+            sFlushPending = false;
+            file = sFile;
+            if (file == null) {
+                return;
+            }
+            // Running timers are split at the flush so they survive a reboot
+            final long now = SystemClock.elapsedRealtime();
+            boolean running = false;
+            for (int i = 0; i < COUNT; i++) {
+                if (sTimerStarts[i] != 0) {
+                    sCounts[i] += now - sTimerStarts[i];
+                    sTimerStarts[i] = now;
+                    running = true;
+                }
+            }
+            System.arraycopy(sCounts, 0, counts, 0, COUNT);
+            if (running) {
+                scheduleFlush();
+            }
+        }
+
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(COUNT);
+            for (long count : counts) {
+                out.writeLong(count);
+            }
+            out.flush();
+            file.finishWrite(fos);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write counters", e);
+            file.failWrite(fos);
+        }
+    }
+
+    private static long[] read(File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new AtomicFile(file).openRead());
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "Ignoring unknown counter file " + file);
+                return null;
+            }
+            // Older files may hold fewer counters
+            int count = Math.min(in.readInt(), COUNT);
+            long[] counts = new long[COUNT];
+            for (int i = 0; i < count; i++) {
+                counts[i] = in.readLong();
+            }
+            return counts;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read counters from " + file, e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignored, not much we can do anyway
+                }
+            }
+        }
+    }
+
+    /**
+     * Exports the app's counters and the last flushed key handler counters
+     * as "name=value" lines. The app's counters are flushed first, so
+     * running timers are included.
+     */
+    public static void dump(PrintWriter pw) {
+        flush();
+        long[] counts;
+        synchronized (FeatureCounters.class) {
+            counts = sCounts.clone();
+        }
+        long[] system = read(getSystemFile());
+        pw.println("FeatureCounters:");
+        for (int i = 0; i < COUNT; i++) {
+            long value = counts[i] + (system != null ? system[i] : 0);
+            pw.println("  " + NAMES[i] + "=" + value);
+        }
+    }
+}
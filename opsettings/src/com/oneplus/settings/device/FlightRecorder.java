@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Fixed-size binary ring buffer of input and device control events, kept in
+ * a memory-mapped file so it survives process death and reboots.
+ *
+ * Recording only stores primitives into the mapping: no allocation, no
+ * formatting and no syscall per record. Strings such as node paths are
+ * stored by hash and resolved by the decoder.
+ *
+ * Decoding only uses plain Java, so dumps can be decoded on a host too.
+ */
+public final class FlightRecorder {
+
+    private static final String TAG = "FlightRecorder";
+
+    public static final int EVENT_KEY = 1;
+    public static final int EVENT_PROXIMITY = 2;
+    public static final int EVENT_GESTURE_ACTION = 3;
+    public static final int EVENT_SLIDER = 4;
+    public static final int EVENT_SLIDER_UPDATE = 5;
+    public static final int EVENT_NODE_WRITE = 6;
+    public static final int EVENT_NODE_READ = 7;
+    public static final int EVENT_IPC = 8;
+
+    // Indexed by the ServiceHandles service constants
+    static final String[] SERVICE_NAMES = {
+        "window",
+        "audio",
+        "notification",
+        "keyguard",
+        "camera",
+        "settings",
+        "power",
+        "activity"
+    };
+
+    private static final int MAGIC = 0x4f504652; // "OPFR"
+    private static final int VERSION = 1;
+
+    // magic, version, record size, capacity, next sequence number
+    private static final int HEADER_SIZE = 32;
+    private static final int OFFSET_SEQUENCE = 16;
+
+    // time (8), sequence, type, a, b, c, duration in us (4 each)
+    private static final int RECORD_SIZE = 32;
+
+    private static final String FILE_NAME = "flight_recorder";
+    private static final int DEFAULT_CAPACITY = 2048;
+
+    private static MappedByteBuffer sBuffer;
+    private static int sCapacity;
+    private static int sSequence;
+
+    private FlightRecorder() {
+        // This class is not supposed to be instantiated
+    }
+
+    /**
+     * Maps the recorder file in the given directory.
+     */
+    public static void init(File dir) {
+        init(new File(dir, FILE_NAME), DEFAULT_CAPACITY);
+    }
+
+    public static File getFile(File dir) {
+        return new File(dir, FILE_NAME);
+    }
+
+    /**
+     * Maps the given file, keeping the records already in it if its layout
+     * matches. Until this is called recording does nothing.
+     */
+    public static synchronized void init(File file, int capacity) {
+        if (sBuffer != null) {
+            return;
+        }
+        final long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // The mapping stays valid after the file is closed
+            raf.setLength(size);
+            MappedByteBuffer buffer = raf.getChannel().map(
+                    FileChannel.MapMode.READ_WRITE, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(8) != RECORD_SIZE || buffer.getInt(12) != capacity) {
+                for (int i = 0; i < size; i += 8) {
+                    buffer.putLong(i, 0);
+                }
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, RECORD_SIZE);
+                buffer.putInt(12, capacity);
+                buffer.putInt(OFFSET_SEQUENCE, 0);
+            }
+            sSequence = buffer.getInt(OFFSET_SEQUENCE);
+            sCapacity = capacity;
+            sBuffer = buffer;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to map " + file, e);
+        }
+    }
+
+    public static void record(int type, int a, int b, int c) {
+        record(type, a, b, c, 0);
+    }
+
+    /**
+     * Records an event that took from startNanos ({@link System#nanoTime})
+     * until now.
+     */
+    public static void recordTimed(int type, int a, int b, int c, long startNanos) {
+        if (sBuffer == null) {
+            return;
+        }
+        record(type, a, b, c, (int) Math.min(Integer.MAX_VALUE,
+                (System.nanoTime() - startNanos) / 1000));
+    }
+
+    private static synchronized void record(int type, int a, int b, int c, int duration) {
+        if (sBuffer == null) {
+            return;
+        }
+        final int offset = HEADER_SIZE
+                + (int) ((sSequence & 0xffffffffL) % sCapacity) * RECORD_SIZE;
+        sBuffer.putLong(offset, System.currentTimeMillis());
+        sBuffer.putInt(offset + 8, sSequence);
+        sBuffer.putInt(offset + 12, type);
+        sBuffer.putInt(offset + 16, a);
+        sBuffer.putInt(offset + 20, b);
+        sBuffer.putInt(offset + 24, c);
+        sBuffer.putInt(offset + 28, duration);
+        sSequence++;
+        sBuffer.putInt(OFFSET_SEQUENCE, sSequence);
+    }
+
+    /**
+     * Records a node access. Short values such as "0" or "1" are stored as
+     * their character, longer ones by hash.
+     *
+     * Only meant for device control nodes. Anything polled, such as the
+     * thermal zones, must read its backend directly or it would push the
+     * control events out of the ring.
+     */
+    public static void recordNode(int type, String node, String value, boolean success,
+            long startNanos) {
+        if (sBuffer == null || node == null) {
+            return;
+        }
+        int v = 0;
+        if (value != null) {
+            v = value.length() == 1 ? value.charAt(0) : value.hashCode();
+        }
+        recordTimed(type, node.hashCode(), v, success ? 1 : 0, startNanos);
+    }
+
+    /**
+     * Packs up to four small values (e.g. slider actions) into one int.
+     */
+    public static int pack(int[] values) {
+        int packed = 0;
+        if (values != null) {
+            for (int i = 0; i < values.length && i < 4; i++) {
+                packed |= (values[i] & 0xff) << (i * 8);
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * Prints the records of a recorder file as a timeline, oldest first,
+     * followed by "name=value" latency lines per timed event type.
+     *
+     * @param nodes     node paths to resolve node hashes with
+     */
+    public static void decode(File file, String[] nodes, PrintWriter pw) {
+        ByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            buffer = ByteBuffer.allocate((int) raf.length());
+            raf.getChannel().read(buffer, 0);
+        } catch (IOException e) {
+            pw.println("  unable to read " + file + ": " + e);
+            return;
+        }
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION || buffer.getInt(8) != RECORD_SIZE) {
+            pw.println("  " + file + " is not a flight recorder file");
+            return;
+        }
+
+        final int capacity = buffer.getInt(12);
+        final long next = buffer.getInt(OFFSET_SEQUENCE) & 0xffffffffL;
+        final long first = Math.max(0, next - capacity);
+        Map<Integer, String> names = new HashMap<>();
+        if (nodes != null) {
+            for (String node : nodes) {
+                if (node != null) {
+                    names.put(node.hashCode(), node);
+                }
+            }
+        }
+        SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        Map<Integer, List<Integer>> durations = new TreeMap<>();
+
+        for (long seq = first; seq < next; seq++) {
+            int offset = HEADER_SIZE + (int) (seq % capacity) * RECORD_SIZE;
+            if (offset + RECORD_SIZE > buffer.capacity()) {
+                break;
+            }
+            long time = buffer.getLong(offset);
+            int type = buffer.getInt(offset + 12);
+            int a = buffer.getInt(offset + 16);
+            int b = buffer.getInt(offset + 20);
+            int c = buffer.getInt(offset + 24);
+            int duration = buffer.getInt(offset + 28);
+            pw.println("  " + format.format(new Date(time)) + " "
+                    + describe(type, a, b, c, names)
+                    + (duration > 0 ? " took=" + duration + "us" : ""));
+            if (duration > 0) {
+                // Calls are broken down per service
+                int key = type == EVENT_IPC ? (EVENT_IPC << 8) | (a & 0xff) : type;
+                List<Integer> list = durations.get(key);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    durations.put(key, list);
+                }
+                list.add(duration);
+            }
+        }
+
+        for (Map.Entry<Integer, List<Integer>> entry : durations.entrySet()) {
+            List<Integer> list = entry.getValue();
+            Collections.sort(list);
+            String name = "  " + typeName(entry.getKey());
+            pw.println(name + "_count=" + list.size());
+            pw.println(name + "_p50_us=" + list.get(list.size() / 2));
+            pw.println(name + "_p90_us=" + list.get(list.size() * 9 / 10));
+            pw.println(name + "_max_us=" + list.get(list.size() - 1));
+        }
+    }
+
+    private static String typeName(int type) {
+        if (type >> 8 == EVENT_IPC) {
+            return "ipc_" + serviceName(type & 0xff);
+        }
+        switch (type) {
+            case EVENT_KEY:
+                return "key";
+            case EVENT_PROXIMITY:
+                return "proximity";
+            case EVENT_GESTURE_ACTION:
+                return "gesture";
+            case EVENT_SLIDER:
+                return "slider";
+            case EVENT_SLIDER_UPDATE:
+                return "slider_update";
+            case EVENT_NODE_WRITE:
+                return "node_write";
+            case EVENT_NODE_READ:
+                return "node_read";
+            default:
+                return "type" + type;
+        }
+    }
+
+    private static String describe(int type, int a, int b, int c, Map<Integer, String> names) {
+        switch (type) {
+            case EVENT_KEY:
+                return "key scancode=" + a + " action=" + b + " handled=" + c;
+            case EVENT_PROXIMITY:
+                return "proximity scancode=" + a + " covered=" + b + " latency=" + c + "ms";
+            case EVENT_GESTURE_ACTION:
+                return "gesture scancode=" + a + " action=" + b;
+            case EVENT_SLIDER:
+                return "slider key=" + a + " action=" + b + " processed=" + c;
+            case EVENT_SLIDER_UPDATE:
+                return "slider usage=" + a + " actions=" + unpack(b);
+            case EVENT_NODE_WRITE:
+                return "write " + nodeName(a, names) + " value=" + valueName(b)
+                        + (c != 0 ? "" : " FAILED");
+            case EVENT_NODE_READ:
+                return "read " + nodeName(a, names) + (c != 0 ? "" : " FAILED");
+            case EVENT_IPC:
+                return "ipc " + serviceName(a);
+            default:
+                return "unknown type=" + type + " " + a + " " + b + " " + c;
+        }
+    }
+
+    private static String unpack(int packed) {
+        return "[" + (packed & 0xff) + ", " + ((packed >> 8) & 0xff) + ", "
+                + ((packed >> 16) & 0xff) + "]";
+    }
+
+    private static String serviceName(int service) {
+        return service >= 0 && service < SERVICE_NAMES.length
+                ? SERVICE_NAMES[service] : "service" + service;
+    }
+
+    private static String nodeName(int hash, Map<Integer, String> names) {
+        String name = names.get(hash);
+        return name != null ? name : String.format("node#%08x", hash);
+    }
+
+    private static String valueName(int value) {
+        if (value >= 0x20 && value < 0x7f) {
+            return String.valueOf((char) value);
+        }
+        return String.format("#%08x", value);
+    }
+}
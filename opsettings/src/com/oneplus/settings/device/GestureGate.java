@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.oneplus.settings.device.utils.DeviceNode;
+
+/**
+ * Decides whether the touchpanel gesture nodes should be armed.
+ *
+ * Screen-off gestures are useless while the display is interactive, so
+ * while gating is active the enabled nodes are only armed with the screen
+ * off. The saved preferences stay the source of truth for which gestures
+ * are enabled; disabled nodes are never written.
+ *
+ * Independently of that, pocket mode disarms the nodes while the proximity
+ * sensor is covered, so false gestures never reach userspace. The power
+ * policy can disarm the music gesture nodes on their own.
+ */
+public final class GestureGate {
+
+    private static final String TAG = "GestureGate";
+    private static final boolean DEBUG = false;
+
+    private static boolean sGated;
+    private static boolean sScreenOn;
+    private static boolean sPocketed;
+    private static boolean sMusicRestricted;
+    private static boolean sArmed = true;
+    private static boolean sMusicArmed = true;
+
+    private GestureGate() {
+        // This class is not supposed to be instantiated
+    }
+
+    public static synchronized boolean isArmed() {
+        return sArmed;
+    }
+
+    public static synchronized void setGated(Context context, boolean gated, boolean screenOn) {
+        sGated = gated;
+        sScreenOn = screenOn;
+        update(context);
+    }
+
+    public static synchronized void setScreenOn(Context context, boolean screenOn) {
+        sScreenOn = screenOn;
+        update(context);
+    }
+
+    public static synchronized void setPocketed(Context context, boolean pocketed) {
+        sPocketed = pocketed;
+        update(context);
+    }
+
+    public static synchronized void setMusicRestricted(Context context, boolean restricted) {
+        sMusicRestricted = restricted;
+        update(context);
+    }
+
+    /**
+     * Writes a gesture preference to its node(s), honoring the current gate.
+     */
+    public static synchronized boolean writeGesture(DeviceNode node, boolean enabled) {
+        return node.write(enabled && isArmed(node));
+    }
+
+    private static boolean isArmed(DeviceNode node) {
+        return node == DeviceNode.MUSIC_GESTURE ? sMusicArmed : sArmed;
+    }
+
+    private static void update(Context context) {
+        final boolean armed = (!sGated || !sScreenOn) && !sPocketed;
+        final boolean musicArmed = armed && !sMusicRestricted;
+        if (armed == sArmed && musicArmed == sMusicArmed) {
+            return;
+        }
+        if (DEBUG) Log.d(TAG, (armed ? "Arming" : "Disarming") + " gesture nodes"
+                + (musicArmed != armed ? ", except music" : ""));
+        final boolean wasArmed = sArmed;
+        final boolean wasMusicArmed = sMusicArmed;
+        sArmed = armed;
+        sMusicArmed = musicArmed;
+        for (int i = 0; i < DeviceNode.count(); i++) {
+            DeviceNode node = DeviceNode.get(i);
+            if (!node.isGesture()) {
+                continue;
+            }
+            boolean was = node == DeviceNode.MUSIC_GESTURE ? wasMusicArmed : wasArmed;
+            if (isArmed(node) != was && node.isEnabled(context)) {
+                node.write(isArmed(node));
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Resources;
+import android.os.UserHandle;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Maps touchscreen gesture scancodes to actions.
+ *
+ * The gestures, their action preferences and default actions come from
+ * overlayable resources. Lookups go through a table indexed by scancode,
+ * so dispatching does not depend on the number of gestures.
+ */
+public class GestureRegistry {
+
+    private static final String TAG = "GestureRegistry";
+
+    public static final int ACTION_NONE = 0;
+    public static final int ACTION_CAMERA = 1;
+    public static final int ACTION_FLASHLIGHT = 2;
+    public static final int ACTION_PLAY_PAUSE = 3;
+    public static final int ACTION_PREVIOUS_TRACK = 4;
+    public static final int ACTION_NEXT_TRACK = 5;
+    public static final int ACTION_WAKE_UP = 6;
+    public static final int ACTION_DIALER = 7;
+    public static final int ACTION_BROWSER = 8;
+
+    public static final String ACTION_UPDATE_GESTURE_SETTINGS
+            = "com.oneplus.settings.device.UPDATE_GESTURE_SETTINGS";
+    public static final String EXTRA_GESTURE_ACTIONS = "actions";
+
+    private final int[] mScancodes;
+    private final String[] mActionKeys;
+    private final int[] mDefaultActions;
+
+    // Action by (scancode - mMinScancode), -1 for unsupported scancodes
+    private final int mMinScancode;
+    private final int[] mTable;
+    // Whether a gesture runs on key down, by (scancode - mMinScancode)
+    private final boolean[] mKeyDown;
+
+    public GestureRegistry(int[] scancodes, String[] actionKeys, int[] defaultActions,
+            int[] keyDown) {
+        if (scancodes.length != actionKeys.length
+                || scancodes.length != defaultActions.length
+                || scancodes.length != keyDown.length) {
+            Log.e(TAG, "Mismatched gesture config, ignoring it");
+            scancodes = new int[0];
+            actionKeys = new String[0];
+            defaultActions = new int[0];
+            keyDown = new int[0];
+        }
+        mScancodes = scancodes;
+        mActionKeys = actionKeys;
+        mDefaultActions = defaultActions;
+
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int scancode : scancodes) {
+            min = Math.min(min, scancode);
+            max = Math.max(max, scancode);
+        }
+        mMinScancode = min;
+        mTable = new int[scancodes.length > 0 ? max - min + 1 : 0];
+        Arrays.fill(mTable, -1);
+        mKeyDown = new boolean[mTable.length];
+        for (int i = 0; i < scancodes.length; i++) {
+            mKeyDown[scancodes[i] - min] = keyDown[i] != 0;
+        }
+        setActions(defaultActions);
+    }
+
+    /**
+     * Loads the registry from this package's resources, which also works
+     * from the key handler running in the system server.
+     */
+    public static GestureRegistry load(Context context) {
+        Resources res = Utils.getPackageResources(context);
+        if (res == null) {
+            return new GestureRegistry(new int[0], new String[0], new int[0], new int[0]);
+        }
+        return new GestureRegistry(res.getIntArray(R.array.config_gestureScancodes),
+                res.getStringArray(R.array.config_gestureActionKeys),
+                res.getIntArray(R.array.config_gestureDefaultActions),
+                res.getIntArray(R.array.config_gestureKeyDown));
+    }
+
+    public int size() {
+        return mScancodes.length;
+    }
+
+    public boolean isSupported(int scancode) {
+        return getAction(scancode) >= 0;
+    }
+
+    /**
+     * Returns the action of a scancode, or -1 if it is not a gesture.
+     */
+    public int getAction(int scancode) {
+        int index = scancode - mMinScancode;
+        if (index < 0 || index >= mTable.length) {
+            return -1;
+        }
+        return mTable[index];
+    }
+
+    /**
+     * Returns whether a gesture runs on key down instead of key up.
+     */
+    public boolean isKeyDown(int scancode) {
+        int index = scancode - mMinScancode;
+        return index >= 0 && index < mKeyDown.length && mKeyDown[index];
+    }
+
+    /**
+     * Sets the actions of all gestures, in config order.
+     */
+    public void setActions(int[] actions) {
+        if (actions == null || actions.length != mScancodes.length) {
+            Log.w(TAG, "Ignoring actions " + Arrays.toString(actions));
+            return;
+        }
+        for (int i = 0; i < mScancodes.length; i++) {
+            mTable[mScancodes[i] - mMinScancode] = actions[i];
+        }
+    }
+
+    /**
+     * Returns the actions picked by the user, in config order. Gestures
+     * without an action preference keep their default action.
+     */
+    public int[] getSavedActions(SettingsStore prefs) {
+        int[] actions = new int[mScancodes.length];
+        for (int i = 0; i < actions.length; i++) {
+            actions[i] = mDefaultActions[i];
+            if (TextUtils.isEmpty(mActionKeys[i])) {
+                continue;
+            }
+            try {
+                actions[i] = Integer.parseInt(prefs.getString(mActionKeys[i],
+                        String.valueOf(mDefaultActions[i])));
+            } catch (NumberFormatException | ClassCastException e) {
+                Log.w(TAG, "Invalid action saved for " + mActionKeys[i] + ", using default");
+            }
+        }
+        return actions;
+    }
+
+    public boolean isActionKey(String key) {
+        for (String actionKey : mActionKeys) {
+            if (actionKey.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String getActionKey(int index) {
+        return mActionKeys[index];
+    }
+
+    public int getDefaultAction(int index) {
+        return mDefaultActions[index];
+    }
+
+    public static void sendUpdateBroadcast(Context context, int[] actions) {
+        Intent intent = new Intent(ACTION_UPDATE_GESTURE_SETTINGS);
+        intent.putExtra(EXTRA_GESTURE_ACTIONS, actions);
+        intent.setFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY);
+        context.sendBroadcastAsUser(intent, UserHandle.CURRENT);
+        Log.d(TAG, "update gesture actions " + Arrays.toString(actions));
+    }
+
+    public static void restoreGestureActions(Context context) {
+        GestureRegistry registry = load(context);
+        sendUpdateBroadcast(context, registry.getSavedActions(SettingsStore.get(context)));
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.util.Log;
+
+import com.oneplus.settings.device.utils.Constants;
+import com.oneplus.settings.device.utils.DeviceNode;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class GestureService extends Service implements SensorEventListener {
+
+    private static final String TAG = "GestureService";
+    private static final boolean DEBUG = false;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    private SensorManager mSensorManager;
+    private Sensor mProximitySensor;
+    private boolean mGated;
+    private boolean mPocketListening;
+    private boolean mPocketed;
+    private long mPocketedSince;
+
+    // Pocket mode statistics
+    private int mPocketCount;
+    private long mPocketTime;
+
+    private final BroadcastReceiver mScreenStateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_SCREEN_ON.equals(intent.getAction())) {
+                onScreenOn();
+            } else if (Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) {
+                onScreenOff();
+            }
+        }
+    };
+
+    public static void update(Context context) {
+        update(context, isPocketModeEnabled(context));
+    }
+
+    public static void update(Context context, boolean pocketMode) {
+        Intent intent = new Intent(context, GestureService.class);
+        if (context.getResources().getBoolean(R.bool.config_gateGesturesWhileScreenOn)
+                || pocketMode) {
+            context.startServiceAsUser(intent, UserHandle.CURRENT);
+        } else {
+            context.stopServiceAsUser(intent, UserHandle.CURRENT);
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_FOREGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        mSensorManager = getSystemService(SensorManager.class);
+        // A wake-up sensor, so covering the sensor is seen in suspend too
+        mProximitySensor = mSensorManager.getDefaultSensor(Sensor.TYPE_PROXIMITY, true);
+        mGated = getResources().getBoolean(R.bool.config_gateGesturesWhileScreenOn);
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        // Node writes happen off the main thread, right in the receiver
+        registerReceiver(mScreenStateReceiver, filter, null, mHandler);
+
+        final boolean screenOn = getSystemService(PowerManager.class).isInteractive();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                GestureGate.setGated(GestureService.this, mGated, screenOn);
+                if (!screenOn) {
+                    onScreenOff();
+                }
+            }
+        });
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        unregisterReceiver(mScreenStateReceiver);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                stopPocketListening();
+                GestureGate.setGated(GestureService.this, false, false);
+            }
+        });
+        mThread.quitSafely();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private void onScreenOn() {
+        // Gate first: while gated, the nodes then stay disarmed when the
+        // pocket state is dropped instead of being armed and disarmed again
+        GestureGate.setScreenOn(this, true);
+        stopPocketListening();
+    }
+
+    private void onScreenOff() {
+        GestureGate.setScreenOn(this, false);
+        if (isPocketModeEnabled(this)) {
+            startPocketListening();
+        }
+    }
+
+    private static boolean isPocketModeEnabled(Context context) {
+        return SettingsStore.get(context).getBoolean(Constants.KEY_POCKET_MODE, false);
+    }
+
+    private void startPocketListening() {
+        if (mPocketListening || mProximitySensor == null) {
+            return;
+        }
+        // Batch the events: pocketing is slow, a short delay costs nothing
+        // and lets the sensor hub skip waking the AP for every transition
+        mPocketListening = mSensorManager.registerListener(this, mProximitySensor,
+                SensorManager.SENSOR_DELAY_NORMAL,
+                getResources().getInteger(R.integer.config_pocketModeMaxReportLatencyUs),
+                mHandler);
+    }
+
+    private void stopPocketListening() {
+        if (!mPocketListening) {
+            return;
+        }
+        mSensorManager.unregisterListener(this);
+        mPocketListening = false;
+        setPocketed(false);
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        setPocketed(event.values[0] < mProximitySensor.getMaximumRange());
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
+    private void setPocketed(boolean pocketed) {
+        if (mPocketed == pocketed) {
+            return;
+        }
+        if (DEBUG) Log.d(TAG, "pocketed=" + pocketed);
+        mPocketed = pocketed;
+        final long now = SystemClock.elapsedRealtime();
+        if (pocketed) {
+            mPocketCount++;
+            mPocketedSince = now;
+        } else {
+            mPocketTime += now - mPocketedSince;
+        }
+        GestureGate.setPocketed(this, pocketed);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("GestureService:");
+        pw.println("  gated=" + mGated);
+        pw.println("  armed=" + GestureGate.isArmed());
+        pw.println("  pocketListening=" + mPocketListening);
+        pw.println("  pocketed=" + mPocketed);
+        pw.println("  pocketCount=" + mPocketCount);
+        pw.println("  pocketTimeMs=" + (mPocketTime + (mPocketed
+                ? SystemClock.elapsedRealtime() - mPocketedSince : 0)));
+        FeatureCounters.dump(pw);
+
+        if (args != null && Arrays.asList(args).contains("flight")) {
+            String[] nodes = getKnownNodes();
+            pw.println("FlightRecorder (app):");
+            FlightRecorder.decode(FlightRecorder.getFile(
+                    createDeviceProtectedStorageContext().getFilesDir()), nodes, pw);
+            pw.println("FlightRecorder (key handler):");
+            FlightRecorder.decode(FlightRecorder.getFile(FeatureCounters.getSystemDir()),
+                    nodes, pw);
+        }
+    }
+
+    private static String[] getKnownNodes() {
+        List<String> nodes = new ArrayList<>();
+        for (int i = 0; i < DeviceNode.count(); i++) {
+            nodes.addAll(Arrays.asList(DeviceNode.get(i).getNodes()));
+        }
+        nodes.add(Constants.NOTIF_SLIDER_NODE);
+        nodes.add(HBMModeSwitch.getFile());
+        for (int i = DeviceState.PANEL_MODE_SRGB; i <= DeviceState.PANEL_MODE_ONEPLUS; i++) {
+            nodes.add(DeviceState.getPanelModeFile(i));
+        }
+        return nodes.toArray(new String[nodes.size()]);
+    }
+}
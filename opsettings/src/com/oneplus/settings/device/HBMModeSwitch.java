@@ -23,10 +23,23 @@ import android.preference.Preference;
 import android.preference.Preference.OnPreferenceChangeListener;
 import android.preference.PreferenceManager;
 
+import com.oneplus.settings.device.utils.Constants;
+
 public class HBMModeSwitch implements OnPreferenceChangeListener {
 
     private static final String FILE = "/sys/devices/virtual/graphics/fb0/hbm";
 
+    // Reasons HBM can be forbidden for
+    public static final int THROTTLE_THERMAL = 1 << 0;
+    public static final int THROTTLE_POWER = 1 << 1;
+
+    // What the user (or automatic HBM) asked for, and the reasons that
+    // currently forbid it
+    private static boolean sRequestKnown;
+    private static boolean sRequested;
+    private static int sThrottled;
+    private static boolean sApplied;
+
     public static String getFile() {
         if (Utils.fileWritable(FILE)) {
             return FILE;
@@ -42,10 +55,51 @@ public class HBMModeSwitch implements OnPreferenceChangeListener {
         return Utils.getFileValueAsBoolean(getFile(), false);
     }
 
+    public static synchronized void setEnabled(boolean enabled) {
+        sRequestKnown = true;
+        sRequested = enabled;
+        apply();
+    }
+
+    public static synchronized void setThrottled(Context context, int reason,
+            boolean throttled) {
+        final int mask = throttled ? sThrottled | reason : sThrottled & ~reason;
+        if (!sRequestKnown) {
+            // The process restarted since HBM was last switched, so only the
+            // saved switch and the node still know whether it was wanted
+            sRequestKnown = true;
+            sRequested = SettingsStore.get(context).getBoolean(Constants.KEY_HBM_SWITCH, false)
+                    || isCurrentlyEnabled(context);
+        } else if (sThrottled == mask) {
+            return;
+        }
+        sThrottled = mask;
+        apply();
+    }
+
+    public static synchronized boolean isThrottled() {
+        return sThrottled != 0;
+    }
+
+    private static void apply() {
+        final boolean enabled = sRequested && sThrottled == 0;
+        Utils.writeValue(getFile(), enabled ? "2" : "0");
+        if (enabled != sApplied) {
+            sApplied = enabled;
+            FeatureCounters.increment(FeatureCounters.HBM_TOGGLES);
+            if (enabled) {
+                FeatureCounters.startTimer(FeatureCounters.HBM_ON_TIME);
+            } else {
+                FeatureCounters.stopTimer(FeatureCounters.HBM_ON_TIME);
+            }
+        }
+        DeviceState.onHbmWritten(enabled);
+    }
+
     @Override
     public boolean onPreferenceChange(Preference preference, Object newValue) {
         Boolean enabled = (Boolean) newValue;
-        Utils.writeValue(getFile(), enabled ? "2" : "0");
+        setEnabled(enabled);
         return true;
     }
 }
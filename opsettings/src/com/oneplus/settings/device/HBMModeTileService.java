@@ -17,60 +17,23 @@
 */
 package com.oneplus.settings.device;
 
-import android.content.Intent;
-import android.content.SharedPreferences;
 import android.service.quicksettings.Tile;
-import android.service.quicksettings.TileService;
-import android.support.v7.preference.PreferenceManager;
 
-import com.oneplus.settings.device.utils.Constants;
-
-public class HBMModeTileService extends TileService {
-
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-    }
-
-    @Override
-    public void onTileAdded() {
-        super.onTileAdded();
-        Tile tile = getQsTile();
-        tile.setState(Tile.STATE_INACTIVE);
-        tile.updateTile();
-    }
-
-    @Override
-    public void onTileRemoved() {
-        super.onTileRemoved();
-    }
-
-    @Override
-    public void onStartListening() {
-        super.onStartListening();
-        Tile tile = getQsTile();
-        tile.setState(Tile.STATE_INACTIVE);
-        tile.updateTile();
-    }
+public class HBMModeTileService extends DeviceTileService {
 
     @Override
-    public void onStopListening() {
-        super.onStopListening();
+    protected void updateTile(Tile tile, DeviceState state) {
+        if (!state.isHbmSupported()) {
+            tile.setState(Tile.STATE_UNAVAILABLE);
+        } else {
+            tile.setState(state.isHbmEnabled() ? Tile.STATE_ACTIVE : Tile.STATE_INACTIVE);
+        }
     }
 
     @Override
-    public void onClick() {
-        super.onClick();
-        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
-        final boolean enabled = HBMModeSwitch.isCurrentlyEnabled(this);
-        Utils.writeValue(HBMModeSwitch.getFile(), enabled ? "0" : "2");
-        sharedPrefs.edit().putBoolean(Constants.KEY_HBM_SWITCH, enabled ? false : true).commit();
-        Tile tile = getQsTile();
-        if(tile.getState() == Tile.STATE_INACTIVE) {
-            tile.setState(Tile.STATE_ACTIVE);
-        } else {
-            tile.setState(Tile.STATE_INACTIVE);
+    protected void onClick(DeviceState state) {
+        if (state.isHbmSupported()) {
+            state.setHbmEnabled(!state.isHbmEnabled());
         }
-        tile.updateTile();
     }
 }
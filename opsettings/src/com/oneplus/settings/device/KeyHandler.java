@@ -16,7 +16,6 @@
 
 package com.oneplus.settings.device;
 
-import android.app.KeyguardManager;
 import android.content.ActivityNotFoundException;
 import android.content.BroadcastReceiver;
 import android.content.ContentResolver;
@@ -31,12 +30,11 @@ import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraAccessException;
 import android.media.AudioManager;
-import android.media.session.MediaSessionLegacyHelper;
 import android.os.Handler;
 import android.os.Message;
 import android.os.PowerManager;
-import android.os.PowerManager.WakeLock;
 import android.os.SystemClock;
+import android.os.SystemProperties;
 import android.os.UserHandle;
 import android.os.Vibrator;
 import android.provider.MediaStore;
@@ -45,7 +43,6 @@ import android.util.Log;
 import android.view.KeyEvent;
 
 import com.android.internal.os.DeviceKeyHandler;
-import com.android.internal.util.ArrayUtils;
 
 import com.oneplus.settings.device.SliderControllerBase;
 import com.oneplus.settings.device.slider.NotificationController;
@@ -55,11 +52,11 @@ import com.oneplus.settings.device.slider.RotationController;
 import com.oneplus.settings.device.slider.RingerController;
 import com.oneplus.settings.device.slider.NotificationRingerController;
 
-import java.util.Arrays;
 
 public class KeyHandler implements DeviceKeyHandler {
 
     private static final String TAG = KeyHandler.class.getSimpleName();
+    private static final boolean DEBUG = false;
     private static final int GESTURE_REQUEST = 1;
 
     private static final String KEY_GESTURE_HAPTIC_FEEDBACK =
@@ -70,24 +67,28 @@ public class KeyHandler implements DeviceKeyHandler {
 
     private static final int ZEN_MODE_VIBRATION = 4;
 
-    // Supported scancodes
-    private static final int FLIP_CAMERA_SCANCODE = 249;
-    private static final int GESTURE_CIRCLE_SCANCODE = 250;
-    private static final int GESTURE_SWIPE_DOWN_SCANCODE = 251;
-    private static final int GESTURE_V_SCANCODE = 252;
-    private static final int GESTURE_LTR_SCANCODE = 253;
-    private static final int GESTURE_GTR_SCANCODE = 254;
-
     private static final int GESTURE_WAKELOCK_DURATION = 3000;
-
-    private static final int[] sSupportedGestures = new int[] {
-        FLIP_CAMERA_SCANCODE,
-        GESTURE_CIRCLE_SCANCODE,
-        GESTURE_SWIPE_DOWN_SCANCODE,
-        GESTURE_V_SCANCODE,
-        GESTURE_LTR_SCANCODE,
-        GESTURE_GTR_SCANCODE
+    private static final int PROXIMITY_TIMEOUT = 200;
+
+    // Wake the display while the proximity check is still running, and put
+    // it back to sleep if the sensor turns out to be covered
+    private static final String SPECULATIVE_WAKE_PROPERTY =
+            "persist.oneplus.gesture.speculative_wake";
+
+    // Trace section names by GestureRegistry action
+    private static final String[] GESTURE_TRACE_NAMES = {
+        "gesture none",
+        "gesture camera",
+        "gesture flashlight",
+        "gesture play/pause",
+        "gesture previous track",
+        "gesture next track",
+        "gesture wake up",
+        "gesture dialer",
+        "gesture browser"
     };
+    private static final String TRACE_GESTURE = "gesture";
+    private static final String TRACE_PROXIMITY = "gesture proximity";
 
     private static final String ACTION_UPDATE_SLIDER_SETTINGS
             = "com.oneplus.settings.device.UPDATE_SLIDER_SETTINGS";
@@ -98,68 +99,111 @@ public class KeyHandler implements DeviceKeyHandler {
     private final Context mContext;
     private final AudioManager mAudioManager;
     private final PowerManager mPowerManager;
-    private KeyguardManager mKeyguardManager;
+    private final ServiceHandles mServices;
     private EventHandler mEventHandler;
+    private MediaDispatcher mMediaDispatcher;
+    private final GestureRegistry mGestures;
     private SensorManager mSensorManager;
     private CameraManager mCameraManager;
     private String mRearCameraId;
     private boolean mTorchEnabled;
+    private final AutoOffScheduler mAutoOff;
     private Sensor mProximitySensor;
     private Vibrator mVibrator;
-    WakeLock mProximityWakeLock;
-    WakeLock mGestureWakeLock;
+    private final WakeLockManager mWakeLockManager;
+    private final WakeLockManager.Scope mProximityWakeLock;
+    private final WakeLockManager.Scope mGestureWakeLock;
     private int mProximityTimeOut;
     private boolean mProximityWakeSupported;
 
-    private final NotificationController mNotificationController;
-    private final FlashlightController mFlashlightController;
-    private final BrightnessController mBrightnessController;
-    private final RotationController mRotationController;
-    private final RingerController mRingerController;
-    private final NotificationRingerController mNotificationRingerController;
+    // One proximity check at a time, shared by gestures arriving meanwhile
+    private final Object mProximityLock = new Object();
+    private boolean mProximityListening;
+    private int mProximityScancode;
+
+    private final SensorEventListener mProximityListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            onProximityChanged(event);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+    };
+
+    // Per-stage timing of the last camera gesture (uptime)
+    private long mGestureStartTime;
+    private long mProximityTime;
+    private long mWakeTime;
+    private boolean mSpeculativeWake;
+
+    // Keyguard and power state, cached so the gesture path needs no IPC
+    private volatile boolean mInteractive;
+    private boolean mKeyguardSecure;
+    private boolean mKeyguardLocked;
+
+    // Indexed by usage, which is the controller ID
+    private final SliderControllerBase[] mSliderControllers =
+            new SliderControllerBase[SliderCatalog.USAGE_COUNT];
 
     private SliderControllerBase mSliderController;
+    private int mSliderUsage;
 
     private final BroadcastReceiver mUpdateReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            int usage = intent.getIntExtra(EXTRA_SLIDER_USAGE, 0);
-            int[] actions = intent.getIntArrayExtra(EXTRA_SLIDER_ACTIONS);
-
-            Log.d(TAG, "update usage " + usage + " with actions " +
-                    Arrays.toString(actions));
+            updateSlider(intent.getIntExtra(EXTRA_SLIDER_USAGE, 0),
+                    intent.getIntArrayExtra(EXTRA_SLIDER_ACTIONS));
+        }
+    };
 
-            if (mSliderController != null) {
-                mSliderController.reset();
-            }
+    private final BroadcastReceiver mPowerPolicyReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int restrictions = intent.getIntExtra(PowerPolicyService.EXTRA_RESTRICTIONS, 0);
+            FlashlightController flashlight =
+                    (FlashlightController) mSliderControllers[FlashlightController.ID];
+            flashlight.setMaxBlinkDuration((restrictions & PowerPolicy.RESTRICT_BLINK) != 0
+                    ? intent.getLongExtra(PowerPolicyService.EXTRA_MAX_BLINK_DURATION, 0) : 0);
+        }
+    };
 
-            switch (usage) {
-                case NotificationController.ID:
-                    mSliderController = mNotificationController;
-                    mSliderController.update(actions);
-                    break;
-                case FlashlightController.ID:
-                    mSliderController = mFlashlightController;
-                    mSliderController.update(actions);
+    private final BroadcastReceiver mScreenStateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            switch (intent.getAction()) {
+                case Intent.ACTION_SCREEN_OFF:
+                    mInteractive = false;
+                    mWakeLockManager.onScreenOff();
+                    // The keyguard may only lock after a timeout, assume the
+                    // worst so a secure device never launches the full camera
+                    mKeyguardLocked = true;
+                    updateKeyguardSecure();
                     break;
-                case BrightnessController.ID:
-                    mSliderController = mBrightnessController;
-                    mSliderController.update(actions);
+                case Intent.ACTION_SCREEN_ON:
+                    mInteractive = true;
+                    updateKeyguardState();
+                    mWakeLockManager.onScreenOn();
                     break;
-                case RotationController.ID:
-                    mSliderController = mRotationController;
-                    mSliderController.update(actions);
+                case Intent.ACTION_USER_PRESENT:
+                    mKeyguardLocked = false;
                     break;
-                case RingerController.ID:
-                    mSliderController = mRingerController;
-                    mSliderController.update(actions);
+                case Intent.ACTION_USER_SWITCHED:
+                    updateKeyguardState();
+                    mMediaDispatcher.onUserSwitched();
                     break;
-                case NotificationRingerController.ID:
-                    mSliderController = mNotificationRingerController;
-                    mSliderController.update(actions);
+                case Intent.ACTION_SHUTDOWN:
+                    // Counters are only flushed every so often otherwise
+                    FeatureCounters.flush();
                     break;
             }
-            mSliderController.restoreState();
+        }
+    };
+
+    private final BroadcastReceiver mGestureUpdateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            setGestureActions(intent.getIntArrayExtra(GestureRegistry.EXTRA_GESTURE_ACTIONS));
         }
     };
 
@@ -167,11 +211,18 @@ public class KeyHandler implements DeviceKeyHandler {
         mContext = context;
         mAudioManager = context.getSystemService(AudioManager.class);
         mPowerManager = context.getSystemService(PowerManager.class);
+        mServices = ServiceHandles.get(context);
         mEventHandler = new EventHandler();
-        mGestureWakeLock = mPowerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "GestureWakeLock");
+        mMediaDispatcher = new MediaDispatcher(context, mEventHandler);
+        FeatureCounters.initSystem();
+        mGestures = GestureRegistry.load(context);
+        mWakeLockManager = WakeLockManager.get(context);
+        mGestureWakeLock = mWakeLockManager.newScope("GestureWakeLock",
+                FeatureCounters.WAKELOCK_GESTURE);
         mSensorManager = context.getSystemService(SensorManager.class);
         mProximitySensor = mSensorManager.getDefaultSensor(Sensor.TYPE_PROXIMITY);
-        mProximityWakeLock = mPowerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "ProximityWakeLock");
+        mProximityWakeLock = mWakeLockManager.newScope("ProximityWakeLock",
+                FeatureCounters.WAKELOCK_PROXIMITY);
 
         mVibrator = context.getSystemService(Vibrator.class);
         if (mVibrator == null || !mVibrator.hasVibrator()) {
@@ -179,32 +230,133 @@ public class KeyHandler implements DeviceKeyHandler {
         }
 
         mCameraManager = (CameraManager) mContext.getSystemService(Context.CAMERA_SERVICE);
+        mAutoOff = AutoOffScheduler.get(context);
+        mAutoOff.setTimeout(AutoOffScheduler.FEATURE_TORCH,
+                AutoOffScheduler.getTimeout(context, AutoOffScheduler.FEATURE_TORCH),
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        setTorchOff();
+                    }
+                });
         mCameraManager.registerTorchCallback(new MyTorchCallback(), mEventHandler);
 
-        mNotificationController = new NotificationController(context);
-        mFlashlightController = new FlashlightController(context);
-        mBrightnessController = new BrightnessController(context);
-        mRotationController = new RotationController(context);
-        mRingerController = new RingerController(context);
-        mNotificationRingerController = new NotificationRingerController(context);
+        mSliderControllers[NotificationController.ID] = new NotificationController(context);
+        mSliderControllers[FlashlightController.ID] = new FlashlightController(context);
+        mSliderControllers[BrightnessController.ID] = new BrightnessController(context);
+        mSliderControllers[RotationController.ID] = new RotationController(context);
+        mSliderControllers[RingerController.ID] = new RingerController(context);
+        mSliderControllers[NotificationRingerController.ID] =
+                new NotificationRingerController(context);
 
         mContext.registerReceiver(mUpdateReceiver,
                 new IntentFilter(ACTION_UPDATE_SLIDER_SETTINGS));
+        mContext.registerReceiver(mGestureUpdateReceiver,
+                new IntentFilter(GestureRegistry.ACTION_UPDATE_GESTURE_SETTINGS),
+                null, mEventHandler);
+        mContext.registerReceiver(mPowerPolicyReceiver,
+                new IntentFilter(PowerPolicyService.ACTION_UPDATE_POWER_POLICY),
+                null, mEventHandler);
+
+        IntentFilter screenStateFilter = new IntentFilter();
+        screenStateFilter.addAction(Intent.ACTION_SCREEN_ON);
+        screenStateFilter.addAction(Intent.ACTION_SCREEN_OFF);
+        screenStateFilter.addAction(Intent.ACTION_USER_PRESENT);
+        screenStateFilter.addAction(Intent.ACTION_USER_SWITCHED);
+        screenStateFilter.addAction(Intent.ACTION_SHUTDOWN);
+        mContext.registerReceiver(mScreenStateReceiver, screenStateFilter, null, mEventHandler);
+
+        mInteractive = mPowerManager.isInteractive();
+        mEventHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                updateKeyguardState();
+            }
+        });
+    }
+
+    /**
+     * Switches the slider to the controller of the given usage.
+     */
+    void updateSlider(int usage, int[] actions) {
+        FlightRecorder.record(FlightRecorder.EVENT_SLIDER_UPDATE, usage,
+                FlightRecorder.pack(actions), 0);
+
+        if (!SliderCatalog.isValid(usage, actions)) {
+            Log.w(TAG, "Ignoring invalid slider update for usage " + usage);
+            return;
+        }
+
+        if (mSliderController != null) {
+            mSliderController.reset();
+        }
+        mSliderUsage = usage;
+        mSliderController = mSliderControllers[usage];
+        mSliderController.update(actions);
+        mSliderController.restoreState();
+    }
+
+    void setGestureActions(int[] actions) {
+        mGestures.setActions(actions);
+    }
+
+    // Inspection hooks for the stress test
+
+    SliderControllerBase getSliderController(int usage) {
+        return mSliderControllers[usage];
+    }
+
+    boolean isProximityListening() {
+        synchronized (mProximityLock) {
+            return mProximityListening;
+        }
+    }
+
+    boolean hasPendingGesture() {
+        return mEventHandler.hasMessages(GESTURE_REQUEST);
+    }
+
+    boolean isTorchEnabled() {
+        return mTorchEnabled;
     }
 
     private class MyTorchCallback extends CameraManager.TorchCallback {
         @Override
         public void onTorchModeChanged(String cameraId, boolean enabled) {
-            if (!cameraId.equals(mRearCameraId))
+            if (!cameraId.equals(getRearCameraId()))
                 return;
             mTorchEnabled = enabled;
+            if (enabled) {
+                FeatureCounters.startTimer(FeatureCounters.TORCH_ON_TIME);
+            } else {
+                FeatureCounters.stopTimer(FeatureCounters.TORCH_ON_TIME);
+                mAutoOff.cancel(AutoOffScheduler.FEATURE_TORCH);
+            }
         }
 
         @Override
         public void onTorchModeUnavailable(String cameraId) {
-            if (!cameraId.equals(mRearCameraId))
+            if (!cameraId.equals(getRearCameraId()))
                 return;
             mTorchEnabled = false;
+            FeatureCounters.stopTimer(FeatureCounters.TORCH_ON_TIME);
+            mAutoOff.cancel(AutoOffScheduler.FEATURE_TORCH);
+        }
+    }
+
+    /**
+     * Turns a torch enabled by a gesture off, as its auto-off timer does.
+     */
+    void setTorchOff() {
+        String rearCameraId = getRearCameraId();
+        if (rearCameraId == null || !mTorchEnabled) {
+            return;
+        }
+        try {
+            mServices.setTorchMode(rearCameraId, false);
+            mTorchEnabled = false;
+        } catch (CameraAccessException e) {
+            Log.w(TAG, "Unable to turn the torch off", e);
         }
     }
 
@@ -227,45 +379,67 @@ public class KeyHandler implements DeviceKeyHandler {
         return mRearCameraId;
     }
 
-    private void ensureKeyguardManager() {
-        if (mKeyguardManager == null) {
-            mKeyguardManager =
-                    (KeyguardManager) mContext.getSystemService(Context.KEYGUARD_SERVICE);
-        }
+    private void updateKeyguardSecure() {
+        mKeyguardSecure = mServices.isKeyguardSecure();
+    }
+
+    private void updateKeyguardState() {
+        updateKeyguardSecure();
+        mKeyguardLocked = mServices.isKeyguardLocked();
     }
 
     private class EventHandler extends Handler {
         @Override
         public void handleMessage(Message msg) {
-            switch (msg.arg1) {
-            case FLIP_CAMERA_SCANCODE:
-            case GESTURE_CIRCLE_SCANCODE:
-                ensureKeyguardManager();
+            // Only set when the sensor missed the proximity timeout
+            stopProximityCheck();
+            final long start = System.nanoTime();
+            final int gestureAction = mGestures.getAction(msg.arg1);
+            DeviceTrace.begin(gestureAction >= 0 && gestureAction < GESTURE_TRACE_NAMES.length
+                    ? GESTURE_TRACE_NAMES[gestureAction] : TRACE_GESTURE);
+            try {
+                handleGesture(msg.arg1, gestureAction);
+            } finally {
+                DeviceTrace.end();
+            }
+            FlightRecorder.recordTimed(FlightRecorder.EVENT_GESTURE_ACTION, msg.arg1,
+                    gestureAction, 0, start);
+            DeviceTrace.endAsync(TRACE_GESTURE, msg.arg1);
+            // Every action is done by now, only the deadline was a guess
+            mGestureWakeLock.release();
+        }
+
+        private void handleGesture(int scancode, int gestureAction) {
+            FeatureCounters.increment(FeatureCounters.GESTURE_ACCEPTED);
+            switch (gestureAction) {
+            case GestureRegistry.ACTION_CAMERA:
                 final String action;
-                mGestureWakeLock.acquire(GESTURE_WAKELOCK_DURATION);
-                if (mKeyguardManager.isKeyguardSecure() && mKeyguardManager.isKeyguardLocked()) {
+                final long dispatchTime = SystemClock.uptimeMillis();
+                if (mKeyguardSecure && mKeyguardLocked) {
                     action = MediaStore.INTENT_ACTION_STILL_IMAGE_CAMERA_SECURE;
                 } else {
-                    mContext.sendBroadcastAsUser(new Intent(ACTION_DISMISS_KEYGUARD),
-                            UserHandle.CURRENT);
+                    dismissKeyguard();
                     action = MediaStore.INTENT_ACTION_STILL_IMAGE_CAMERA;
                 }
-                mPowerManager.wakeUp(SystemClock.uptimeMillis(), "wakeup-gesture");
+                wakeUp();
                 Intent intent = new Intent(action, null);
                 startActivitySafely(intent);
+                logGestureTiming(scancode, dispatchTime);
                 doHapticFeedback();
                 break;
-            case GESTURE_SWIPE_DOWN_SCANCODE:
-                dispatchMediaKeyWithWakeLockToMediaSession(KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE);
+            case GestureRegistry.ACTION_PLAY_PAUSE:
+                mMediaDispatcher.playPause();
                 doHapticFeedback();
                 break;
-            case GESTURE_V_SCANCODE: {
+            case GestureRegistry.ACTION_FLASHLIGHT: {
                 String rearCameraId = getRearCameraId();
                 if (rearCameraId != null) {
-                    mGestureWakeLock.acquire(GESTURE_WAKELOCK_DURATION);
                     try {
-                        mCameraManager.setTorchMode(rearCameraId, !mTorchEnabled);
+                        mServices.setTorchMode(rearCameraId, !mTorchEnabled);
                         mTorchEnabled = !mTorchEnabled;
+                        if (mTorchEnabled) {
+                            mAutoOff.start(AutoOffScheduler.FEATURE_TORCH);
+                        }
                     } catch (CameraAccessException e) {
                         // Ignore
                     }
@@ -273,48 +447,135 @@ public class KeyHandler implements DeviceKeyHandler {
                 }
                 break;
             }
-            case GESTURE_LTR_SCANCODE:
-                dispatchMediaKeyWithWakeLockToMediaSession(KeyEvent.KEYCODE_MEDIA_PREVIOUS);
+            case GestureRegistry.ACTION_PREVIOUS_TRACK:
+                mMediaDispatcher.skipToPrevious();
+                doHapticFeedback();
+                break;
+            case GestureRegistry.ACTION_NEXT_TRACK:
+                mMediaDispatcher.skipToNext();
                 doHapticFeedback();
                 break;
-            case GESTURE_GTR_SCANCODE:
-                dispatchMediaKeyWithWakeLockToMediaSession(KeyEvent.KEYCODE_MEDIA_NEXT);
+            case GestureRegistry.ACTION_WAKE_UP:
+                wakeUp();
                 doHapticFeedback();
                 break;
+            case GestureRegistry.ACTION_DIALER:
+                launchUnlocked(new Intent(Intent.ACTION_DIAL, null));
+                break;
+            case GestureRegistry.ACTION_BROWSER:
+                launchUnlocked(Intent.makeMainSelectorActivity(Intent.ACTION_MAIN,
+                        Intent.CATEGORY_APP_BROWSER));
+                break;
             }
         }
     }
 
+    private void wakeUp() {
+        if (mWakeTime == 0) {
+            mServices.wakeUp("wakeup-gesture");
+            mWakeTime = SystemClock.uptimeMillis();
+        }
+    }
+
+    private void dismissKeyguard() {
+        if (mKeyguardLocked) {
+            mContext.sendBroadcastAsUser(new Intent(ACTION_DISMISS_KEYGUARD),
+                    UserHandle.CURRENT);
+        }
+    }
+
+    private void launchUnlocked(Intent intent) {
+        dismissKeyguard();
+        wakeUp();
+        startActivitySafely(intent);
+        doHapticFeedback();
+    }
+
     public KeyEvent handleKeyEvent(KeyEvent event) {
         int scanCode = event.getScanCode();
-        boolean isKeySupported = ArrayUtils.contains(sSupportedGestures, scanCode);
+        boolean isKeySupported = mGestures.isSupported(scanCode);
         boolean isSliderControllerSupported = mSliderController != null &&
                 mSliderController.isSupported(scanCode);
         if (!isKeySupported && !isSliderControllerSupported) {
             return event;
         }
+        final long start = System.nanoTime();
+        DeviceTrace.begin("KeyHandler.handleKeyEvent");
+        try {
+            handleSupportedKeyEvent(event, scanCode, isSliderControllerSupported);
+        } finally {
+            DeviceTrace.end();
+        }
+        FlightRecorder.recordTimed(FlightRecorder.EVENT_KEY, scanCode, event.getAction(),
+                isKeySupported ? mGestures.getAction(scanCode) : -1, start);
+        return null;
+    }
 
-        // We only want ACTION_UP event, except FLIP_CAMERA_SCANCODE
-        if (scanCode == FLIP_CAMERA_SCANCODE) {
+    private void handleSupportedKeyEvent(KeyEvent event, int scanCode,
+            boolean isSliderControllerSupported) {
+        // Gestures run on key up, unless configured to run on key down
+        if (mGestures.isKeyDown(scanCode)) {
             if (event.getAction() != KeyEvent.ACTION_DOWN) {
-                return null;
+                return;
             }
         } else if (event.getAction() != KeyEvent.ACTION_UP) {
-            return null;
+            return;
         }
 
         if (isSliderControllerSupported) {
             mSliderController.processEvent(scanCode);
+            FeatureCounters.incrementSlider(mSliderUsage);
         } else if (!mEventHandler.hasMessages(GESTURE_REQUEST)) {
             Message msg = getMessageForKeyEvent(scanCode);
+            mGestureStartTime = SystemClock.uptimeMillis();
+            mProximityTime = 0;
+            mWakeTime = 0;
+            mSpeculativeWake = false;
+            // Held from the key event until the action ran or got rejected
+            mGestureWakeLock.acquire(GESTURE_WAKELOCK_DURATION);
+            DeviceTrace.beginAsync(TRACE_GESTURE, scanCode);
             if (mProximitySensor != null) {
-                mEventHandler.sendMessageDelayed(msg, 200);
+                mEventHandler.sendMessageDelayed(msg, PROXIMITY_TIMEOUT);
+                if (mGestures.getAction(scanCode) == GestureRegistry.ACTION_CAMERA) {
+                    wakeUpSpeculatively();
+                }
                 processEvent(scanCode);
             } else {
                 mEventHandler.sendMessage(msg);
             }
         }
-        return null;
+    }
+
+    private void wakeUpSpeculatively() {
+        if (!SystemProperties.getBoolean(SPECULATIVE_WAKE_PROPERTY, false) || mInteractive) {
+            return;
+        }
+        // Panel power-on is the slowest step of the launch, start it now
+        // instead of after the proximity check
+        mSpeculativeWake = true;
+        mServices.wakeUp("wakeup-gesture-speculative");
+        mWakeTime = SystemClock.uptimeMillis();
+    }
+
+    private void abortSpeculativeWake() {
+        if (!mSpeculativeWake) {
+            return;
+        }
+        mSpeculativeWake = false;
+        mWakeTime = 0;
+        Log.i(TAG, "Proximity covered, aborting speculative wake");
+        mServices.goToSleep();
+    }
+
+    private void logGestureTiming(int scancode, long dispatchTime) {
+        final long now = SystemClock.uptimeMillis();
+        Log.d(TAG, "Gesture " + scancode + ": proximity="
+                + (mProximityTime > 0 ? (mProximityTime - mGestureStartTime) + "ms" : "none")
+                + " wake=" + (mWakeTime - mGestureStartTime) + "ms"
+                + (mSpeculativeWake ? " (speculative)" : "")
+                + " launch=" + (now - dispatchTime) + "ms"
+                + " total=" + (now - mGestureStartTime) + "ms");
+        mSpeculativeWake = false;
     }
 
     private Message getMessageForKeyEvent(int scancode) {
@@ -323,40 +584,68 @@ public class KeyHandler implements DeviceKeyHandler {
         return msg;
     }
 
-    private void processEvent(final int scancode) {
-        mProximityWakeLock.acquire();
-        mSensorManager.registerListener(new SensorEventListener() {
-            @Override
-            public void onSensorChanged(SensorEvent event) {
+    private void processEvent(int scancode) {
+        synchronized (mProximityLock) {
+            mProximityScancode = scancode;
+            if (mProximityListening) {
+                // The pending sample answers for this gesture as well
+                return;
+            }
+            mProximityWakeLock.acquire(PROXIMITY_TIMEOUT * 2);
+            DeviceTrace.beginAsync(TRACE_PROXIMITY, scancode);
+            // Delivered on the event handler, so a sample and the timeout
+            // of the same gesture never race
+            mProximityListening = mSensorManager.registerListener(mProximityListener,
+                    mProximitySensor, SensorManager.SENSOR_DELAY_FASTEST, mEventHandler);
+            if (!mProximityListening) {
+                DeviceTrace.endAsync(TRACE_PROXIMITY, scancode);
                 mProximityWakeLock.release();
-                mSensorManager.unregisterListener(this);
-                if (!mEventHandler.hasMessages(GESTURE_REQUEST)) {
-                    // The sensor took to long, ignoring.
-                    return;
-                }
-                mEventHandler.removeMessages(GESTURE_REQUEST);
-                if (event.values[0] == mProximitySensor.getMaximumRange()) {
-                    Message msg = getMessageForKeyEvent(scancode);
-                    mEventHandler.sendMessage(msg);
-                }
             }
+        }
+    }
 
-            @Override
-            public void onAccuracyChanged(Sensor sensor, int accuracy) {}
-
-        }, mProximitySensor, SensorManager.SENSOR_DELAY_FASTEST);
+    private void stopProximityCheck() {
+        synchronized (mProximityLock) {
+            if (!mProximityListening) {
+                return;
+            }
+            mSensorManager.unregisterListener(mProximityListener);
+            mProximityListening = false;
+            DeviceTrace.endAsync(TRACE_PROXIMITY, mProximityScancode);
+            mProximityWakeLock.release();
+        }
     }
 
-    private void dispatchMediaKeyWithWakeLockToMediaSession(int keycode) {
-        MediaSessionLegacyHelper helper = MediaSessionLegacyHelper.getHelper(mContext);
-        if (helper != null) {
-            KeyEvent event = new KeyEvent(SystemClock.uptimeMillis(),
-                    SystemClock.uptimeMillis(), KeyEvent.ACTION_DOWN, keycode, 0);
-            helper.sendMediaButtonEvent(event, true);
-            event = KeyEvent.changeAction(event, KeyEvent.ACTION_UP);
-            helper.sendMediaButtonEvent(event, true);
+    private void onProximityChanged(SensorEvent event) {
+        final int scancode;
+        synchronized (mProximityLock) {
+            if (!mProximityListening) {
+                // Late sample of a check that already timed out
+                return;
+            }
+            scancode = mProximityScancode;
+        }
+        stopProximityCheck();
+        mProximityTime = SystemClock.uptimeMillis();
+        FlightRecorder.record(FlightRecorder.EVENT_PROXIMITY, scancode,
+                event.values[0] < mProximitySensor.getMaximumRange() ? 1 : 0,
+                (int) (mProximityTime - mGestureStartTime));
+        if (!mEventHandler.hasMessages(GESTURE_REQUEST)) {
+            // The sensor took to long, ignoring.
+            return;
+        }
+        mEventHandler.removeMessages(GESTURE_REQUEST);
+        if (event.values[0] == mProximitySensor.getMaximumRange()) {
+            Message msg = getMessageForKeyEvent(scancode);
+            mEventHandler.sendMessage(msg);
         } else {
-            Log.w(TAG, "Unable to send media key event");
+            abortSpeculativeWake();
+            DeviceTrace.endAsync(TRACE_GESTURE, scancode);
+            mGestureWakeLock.release();
+            // Every one of these woke the device for nothing, pocket
+            // mode should keep this close to zero
+            FeatureCounters.increment(FeatureCounters.GESTURE_REJECTED);
+            if (DEBUG) Log.d(TAG, "Gesture " + scancode + " rejected by proximity");
         }
     }
 
@@ -381,6 +670,7 @@ public class KeyHandler implements DeviceKeyHandler {
                 KEY_GESTURE_HAPTIC_FEEDBACK, 1) != 0;
         if (enabled) {
             mVibrator.vibrate(50);
+            FeatureCounters.increment(FeatureCounters.VIBRATIONS);
         }
     }
 }
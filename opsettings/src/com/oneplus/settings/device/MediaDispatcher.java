@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.media.session.MediaController;
+import android.media.session.MediaSessionLegacyHelper;
+import android.media.session.MediaSessionManager;
+import android.media.session.PlaybackState;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.KeyEvent;
+
+import java.util.List;
+
+/**
+ * Sends media gestures straight to the transport controls of the active
+ * media session, which is tracked with a session listener instead of being
+ * looked up for every gesture. Falls back to media key events only when
+ * no session is active, e.g. to start the last used player.
+ *
+ * The key handler runs in the system server as user 0, so sessions are
+ * tracked for the current user explicitly and again after a user switch.
+ */
+public class MediaDispatcher {
+
+    private static final String TAG = "MediaDispatcher";
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private boolean mRegistered;
+    private int mUserId;
+    private MediaController mController;
+
+    private final MediaSessionManager.OnActiveSessionsChangedListener mSessionListener =
+            new MediaSessionManager.OnActiveSessionsChangedListener() {
+        @Override
+        public void onActiveSessionsChanged(List<MediaController> controllers) {
+            updateController(controllers);
+        }
+    };
+
+    public MediaDispatcher(Context context, Handler handler) {
+        mContext = context;
+        mHandler = handler;
+    }
+
+    private void ensureRegistered() {
+        // The media session service starts after the key handler, so only
+        // register once the first media gesture comes in
+        if (mRegistered) {
+            return;
+        }
+        MediaSessionManager msm = mContext.getSystemService(MediaSessionManager.class);
+        if (msm == null) {
+            return;
+        }
+        final int userId = ActivityManager.getCurrentUser();
+        try {
+            msm.addOnActiveSessionsChangedListener(mSessionListener, null, userId, mHandler);
+            updateController(msm.getActiveSessionsForUser(null, userId));
+        } catch (SecurityException e) {
+            Log.w(TAG, "Unable to track media sessions, using media keys only", e);
+        }
+        mUserId = userId;
+        mRegistered = true;
+    }
+
+    /**
+     * Moves the session listener over to the new current user. Called on
+     * the dispatcher's handler.
+     */
+    public void onUserSwitched() {
+        if (!mRegistered || mUserId == ActivityManager.getCurrentUser()) {
+            return;
+        }
+        MediaSessionManager msm = mContext.getSystemService(MediaSessionManager.class);
+        msm.removeOnActiveSessionsChangedListener(mSessionListener);
+        mRegistered = false;
+        mController = null;
+        ensureRegistered();
+    }
+
+    private void updateController(List<MediaController> controllers) {
+        // Sessions are sorted by priority, the first one gets the media keys
+        mController = controllers == null || controllers.isEmpty()
+                ? null : controllers.get(0);
+    }
+
+    public void playPause() {
+        ensureRegistered();
+        MediaController controller = mController;
+        if (controller == null) {
+            dispatchMediaKey(KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE);
+            return;
+        }
+        PlaybackState state = controller.getPlaybackState();
+        if (state != null && isPlaying(state.getState())) {
+            controller.getTransportControls().pause();
+        } else {
+            controller.getTransportControls().play();
+        }
+    }
+
+    public void skipToNext() {
+        ensureRegistered();
+        MediaController controller = mController;
+        if (controller == null) {
+            dispatchMediaKey(KeyEvent.KEYCODE_MEDIA_NEXT);
+        } else {
+            controller.getTransportControls().skipToNext();
+        }
+    }
+
+    public void skipToPrevious() {
+        ensureRegistered();
+        MediaController controller = mController;
+        if (controller == null) {
+            dispatchMediaKey(KeyEvent.KEYCODE_MEDIA_PREVIOUS);
+        } else {
+            controller.getTransportControls().skipToPrevious();
+        }
+    }
+
+    private static boolean isPlaying(int state) {
+        switch (state) {
+            case PlaybackState.STATE_PLAYING:
+            case PlaybackState.STATE_BUFFERING:
+            case PlaybackState.STATE_CONNECTING:
+            case PlaybackState.STATE_FAST_FORWARDING:
+            case PlaybackState.STATE_REWINDING:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void dispatchMediaKey(int keycode) {
+        MediaSessionLegacyHelper helper = MediaSessionLegacyHelper.getHelper(mContext);
+        if (helper != null) {
+            KeyEvent event = new KeyEvent(SystemClock.uptimeMillis(),
+                    SystemClock.uptimeMillis(), KeyEvent.ACTION_DOWN, keycode, 0);
+            helper.sendMediaButtonEvent(event, true);
+            event = KeyEvent.changeAction(event, KeyEvent.ACTION_UP);
+            helper.sendMediaButtonEvent(event, true);
+        } else {
+            Log.w(TAG, "Unable to send media key event");
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+import android.location.LocationManager;
+import android.util.Log;
+
+import com.oneplus.settings.device.utils.Constants;
+
+import java.util.Calendar;
+
+/**
+ * Switches the panel into a scheduled mode between two fixed times or
+ * between sunset and sunrise, and back to the user's saved mode outside of
+ * that window.
+ *
+ * Boundaries use inexact, non-wakeup RTC alarms: they are batched with
+ * other alarms and delivered once the device is awake anyway, which is the
+ * only time the panel mode matters.
+ */
+public class NightModeScheduler extends BroadcastReceiver {
+
+    private static final String TAG = "NightModeScheduler";
+
+    private static final String ACTION_SCHEDULE_CHANGE =
+            "com.oneplus.settings.device.NIGHT_SCHEDULE_CHANGE";
+
+    public static final int SCHEDULE_OFF = 0;
+    public static final int SCHEDULE_CUSTOM = 1;
+    public static final int SCHEDULE_TWILIGHT = 2;
+
+    private static final int DEFAULT_START = 21 * 60;
+    private static final int DEFAULT_END = 7 * 60;
+
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+    private static final long ALARM_WINDOW = 10 * 60 * 1000;
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        update(context);
+    }
+
+    /**
+     * Applies the mode that is correct right now and schedules the next
+     * boundary.
+     */
+    public static void update(Context context) {
+        final SettingsStore prefs = SettingsStore.get(context);
+        int mode = getScheduledMode(context, System.currentTimeMillis());
+        DeviceState.get(context).applyPanelMode(
+                mode >= 0 ? mode : DeviceState.getSavedPanelMode(prefs));
+        scheduleNextChange(context);
+    }
+
+    /**
+     * Schedules the alarm for the next schedule boundary, if any.
+     */
+    public static void scheduleNextChange(Context context) {
+        final SettingsStore prefs = SettingsStore.get(context);
+        final long now = System.currentTimeMillis();
+        final int schedule = getSchedule(prefs);
+
+        cancelAlarm(context);
+        if (schedule == SCHEDULE_OFF) {
+            return;
+        }
+
+        long next = getNextChange(context, prefs, schedule, now);
+        if (next > now) {
+            AlarmManager am = context.getSystemService(AlarmManager.class);
+            am.setWindow(AlarmManager.RTC, next, ALARM_WINDOW, getPendingIntent(context));
+        }
+    }
+
+    /**
+     * Returns the panel mode the schedule wants right now, or -1 if the
+     * schedule is off or outside of its window.
+     */
+    public static int getScheduledMode(Context context, long now) {
+        final SettingsStore prefs = SettingsStore.get(context);
+        final int schedule = getSchedule(prefs);
+        final boolean active;
+        switch (schedule) {
+            case SCHEDULE_CUSTOM:
+                active = isInCustomWindow(prefs, now);
+                break;
+            case SCHEDULE_TWILIGHT:
+                SunCalculator sun = getSun(context, prefs, now);
+                active = sun != null && sun.isNight;
+                break;
+            default:
+                active = false;
+                break;
+        }
+        if (!active) {
+            return -1;
+        }
+        return Integer.parseInt(prefs.getString(Constants.KEY_NIGHT_SCHEDULE_MODE,
+                String.valueOf(DeviceState.PANEL_MODE_NIGHT)));
+    }
+
+    private static int getSchedule(SettingsStore prefs) {
+        return Integer.parseInt(prefs.getString(Constants.KEY_NIGHT_SCHEDULE,
+                String.valueOf(SCHEDULE_OFF)));
+    }
+
+    private static int getMinutes(SettingsStore prefs, String key, int defValue) {
+        return Integer.parseInt(prefs.getString(key, String.valueOf(defValue)));
+    }
+
+    private static boolean isInCustomWindow(SettingsStore prefs, long now) {
+        int start = getMinutes(prefs, Constants.KEY_NIGHT_SCHEDULE_START, DEFAULT_START);
+        int end = getMinutes(prefs, Constants.KEY_NIGHT_SCHEDULE_END, DEFAULT_END);
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(now);
+        int minutes = c.get(Calendar.HOUR_OF_DAY) * 60 + c.get(Calendar.MINUTE);
+        if (start <= end) {
+            return minutes >= start && minutes < end;
+        }
+        return minutes >= start || minutes < end;
+    }
+
+    private static long getNextChange(Context context, SettingsStore prefs,
+            int schedule, long now) {
+        if (schedule == SCHEDULE_CUSTOM) {
+            int start = getMinutes(prefs, Constants.KEY_NIGHT_SCHEDULE_START, DEFAULT_START);
+            int end = getMinutes(prefs, Constants.KEY_NIGHT_SCHEDULE_END, DEFAULT_END);
+            return Math.min(getNextOccurrence(start, now), getNextOccurrence(end, now));
+        }
+
+        SunCalculator sun = getSun(context, prefs, now);
+        if (sun == null) {
+            return -1;
+        }
+        if (sun.sunrise < 0) {
+            // Polar day or night, look again tomorrow
+            return now + DAY_IN_MILLIS;
+        }
+        if (now < sun.sunrise) {
+            return sun.sunrise;
+        }
+        if (now < sun.sunset) {
+            return sun.sunset;
+        }
+        sun = getSun(context, prefs, now + DAY_IN_MILLIS);
+        return sun.sunrise > now ? sun.sunrise : now + DAY_IN_MILLIS;
+    }
+
+    private static long getNextOccurrence(int minutes, long now) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(now);
+        c.set(Calendar.HOUR_OF_DAY, minutes / 60);
+        c.set(Calendar.MINUTE, minutes % 60);
+        c.set(Calendar.SECOND, 0);
+        c.set(Calendar.MILLISECOND, 0);
+        if (c.getTimeInMillis() <= now) {
+            c.add(Calendar.DAY_OF_YEAR, 1);
+        }
+        return c.getTimeInMillis();
+    }
+
+    private static SunCalculator getSun(Context context, SettingsStore prefs, long time) {
+        updateStoredLocation(context, prefs);
+        if (!prefs.contains(Constants.KEY_NIGHT_SCHEDULE_LATITUDE)) {
+            Log.w(TAG, "No location stored, cannot compute sunset");
+            return null;
+        }
+        SunCalculator sun = new SunCalculator();
+        sun.calculate(time,
+                prefs.getFloat(Constants.KEY_NIGHT_SCHEDULE_LATITUDE, 0),
+                prefs.getFloat(Constants.KEY_NIGHT_SCHEDULE_LONGITUDE, 0));
+        return sun;
+    }
+
+    private static void updateStoredLocation(Context context, SettingsStore prefs) {
+        // The passive provider only reports fixes other apps already paid for
+        LocationManager lm = context.getSystemService(LocationManager.class);
+        Location location = null;
+        try {
+            location = lm.getLastKnownLocation(LocationManager.PASSIVE_PROVIDER);
+        } catch (SecurityException e) {
+            Log.w(TAG, "No permission to read the last known location");
+        }
+        if (location == null) {
+            return;
+        }
+        prefs.edit()
+                .putFloat(Constants.KEY_NIGHT_SCHEDULE_LATITUDE, (float) location.getLatitude())
+                .putFloat(Constants.KEY_NIGHT_SCHEDULE_LONGITUDE, (float) location.getLongitude())
+                .apply();
+    }
+
+    private static PendingIntent getPendingIntent(Context context) {
+        Intent intent = new Intent(ACTION_SCHEDULE_CHANGE);
+        intent.setClass(context, NightModeScheduler.class);
+        return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private static void cancelAlarm(Context context) {
+        context.getSystemService(AlarmManager.class).cancel(getPendingIntent(context));
+    }
+}
@@ -24,9 +24,12 @@ import android.preference.Preference;
 import android.preference.Preference.OnPreferenceChangeListener;
 import android.preference.PreferenceManager;
 
+import com.android.internal.annotations.VisibleForTesting;
+
 public class OneplusModeSwitch implements OnPreferenceChangeListener {
 
-    private static final String FILE = "/sys/devices/virtual/graphics/fb0/oneplus_mode";
+    @VisibleForTesting
+    static final String FILE = "/sys/devices/virtual/graphics/fb0/oneplus_mode";
 
     public static String getFile() {
         if (Utils.fileWritable(FILE)) {
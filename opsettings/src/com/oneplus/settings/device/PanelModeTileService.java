@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.service.quicksettings.Tile;
+
+public class PanelModeTileService extends DeviceTileService {
+
+    @Override
+    protected void updateTile(Tile tile, DeviceState state) {
+        int mode = state.getPanelMode();
+        tile.setLabel(getString(DeviceState.getPanelModeTitle(mode)));
+        tile.setState(mode == DeviceState.PANEL_MODE_OFF
+                ? Tile.STATE_INACTIVE : Tile.STATE_ACTIVE);
+    }
+
+    @Override
+    protected void onClick(DeviceState state) {
+        state.setPanelMode(state.getNextPanelMode());
+    }
+}
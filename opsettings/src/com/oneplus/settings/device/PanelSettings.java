@@ -21,13 +21,11 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.res.Resources;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.preference.PreferenceFragment;
 import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceCategory;
-import android.preference.PreferenceManager;
 import android.preference.PreferenceScreen;
 import android.preference.TwoStatePreference;
 import android.provider.Settings;
@@ -49,8 +47,6 @@ import android.widget.RadioGroup;
 import android.util.Log;
 import android.os.Bundle;
 
-import com.oneplus.settings.device.utils.Constants;
-
 public class PanelSettings extends PreferenceFragment implements RadioGroup.OnCheckedChangeListener {
 
     private RadioGroup mRadioGroup;
@@ -126,54 +122,16 @@ public class PanelSettings extends PreferenceFragment implements RadioGroup.OnCh
 
     @Override
     public void onCheckedChanged(RadioGroup group, int checkedId) {
-        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(getContext());
-        SharedPreferences.Editor edit = sharedPrefs.edit();
+        int mode = DeviceState.PANEL_MODE_OFF;
         if (checkedId == R.id.srgb_mode) {
-            Utils.writeValue(DCIModeSwitch.getFile(), "0");
-            edit.putBoolean(Constants.KEY_DCI_SWITCH, false);
-            Utils.writeValue(OneplusModeSwitch.getFile(), "0");
-            edit.putBoolean(Constants.KEY_ONEPLUS_SWITCH, false);
-            Utils.writeValue(NightModeSwitch.getFile(), "0");
-            edit.putBoolean(Constants.KEY_NIGHT_SWITCH, false);
-            Utils.writeValue(SRGBModeSwitch.getFile(), "1");
-            edit.putBoolean(Constants.KEY_SRGB_SWITCH, true);
+            mode = DeviceState.PANEL_MODE_SRGB;
         } else if (checkedId == R.id.oneplus_mode) {
-            Utils.writeValue(DCIModeSwitch.getFile(), "0");
-            edit.putBoolean(Constants.KEY_DCI_SWITCH, false);
-            Utils.writeValue(SRGBModeSwitch.getFile(), "0");
-            edit.putBoolean(Constants.KEY_SRGB_SWITCH, false);
-            Utils.writeValue(NightModeSwitch.getFile(), "0");
-            edit.putBoolean(Constants.KEY_NIGHT_SWITCH, false);
-            Utils.writeValue(OneplusModeSwitch.getFile(), "1");
-            edit.putBoolean(Constants.KEY_ONEPLUS_SWITCH, true);
+            mode = DeviceState.PANEL_MODE_ONEPLUS;
         } else if (checkedId == R.id.night_mode) {
-            Utils.writeValue(DCIModeSwitch.getFile(), "0");
-            edit.putBoolean(Constants.KEY_DCI_SWITCH, false);
-            Utils.writeValue(SRGBModeSwitch.getFile(), "0");
-            edit.putBoolean(Constants.KEY_SRGB_SWITCH, false);
-            Utils.writeValue(OneplusModeSwitch.getFile(), "0");
-            edit.putBoolean(Constants.KEY_ONEPLUS_SWITCH, false);
-            Utils.writeValue(NightModeSwitch.getFile(), "1");
-            edit.putBoolean(Constants.KEY_NIGHT_SWITCH, true);
+            mode = DeviceState.PANEL_MODE_NIGHT;
         } else if (checkedId == R.id.dci_mode) {
-            Utils.writeValue(OneplusModeSwitch.getFile(), "0");
-            edit.putBoolean(Constants.KEY_ONEPLUS_SWITCH, false);
-            Utils.writeValue(NightModeSwitch.getFile(), "0");
-            edit.putBoolean(Constants.KEY_NIGHT_SWITCH, false);
-            Utils.writeValue(SRGBModeSwitch.getFile(), "0");
-            edit.putBoolean(Constants.KEY_SRGB_SWITCH, false);
-            Utils.writeValue(DCIModeSwitch.getFile(), "1");
-            edit.putBoolean(Constants.KEY_DCI_SWITCH, true);
-        } else if (checkedId == R.id.off_mode) {
-            Utils.writeValue(DCIModeSwitch.getFile(), "0");
-            edit.putBoolean(Constants.KEY_DCI_SWITCH, false);
-            Utils.writeValue(OneplusModeSwitch.getFile(), "0");
-            edit.putBoolean(Constants.KEY_ONEPLUS_SWITCH, false);
-            Utils.writeValue(NightModeSwitch.getFile(), "0");
-            edit.putBoolean(Constants.KEY_NIGHT_SWITCH, false);
-            Utils.writeValue(SRGBModeSwitch.getFile(), "0");
-            edit.putBoolean(Constants.KEY_SRGB_SWITCH, false);
+            mode = DeviceState.PANEL_MODE_DCI;
         }
-        edit.commit();
+        DeviceState.get(getContext()).setPanelMode(mode);
     }
 }
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.oneplus.settings.device.utils.Nodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Hides discrete panel switches (color modes, HBM) behind a short fade on a
+ * continuous KCAL-style calibration node: the RGB gains are ramped down,
+ * the discrete node is switched, and the gains are ramped back up.
+ *
+ * Frames are written at a fixed rate on the handler's thread from a single
+ * reused buffer, and writing stops as soon as the target is reached.
+ */
+public final class PanelTransition {
+
+    /**
+     * Time base of the frames, so tests can run transitions on a fake clock.
+     */
+    interface Clock {
+        long uptimeMillis();
+    }
+
+    private static final String TAG = "PanelTransition";
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
+    };
+
+    private static final int PHASE_IDLE = 0;
+    private static final int PHASE_FADE_OUT = 1;
+    private static final int PHASE_FADE_IN = 2;
+
+    // "RRR GGG BBB\n", fixed width so every write fully replaces the last
+    private static final int DIGITS = 3;
+    private static final int FRAME_SIZE = 3 * (DIGITS + 1);
+
+    private final String mNode;
+    private final int mMax;
+    private final long mDuration;
+    private final long mFrameInterval;
+    private final int mDimPercent;
+    private final Handler mHandler;
+    private final Clock mClock;
+
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(FRAME_SIZE);
+    private final int[] mBase = new int[3];
+    private final int[] mFrom = new int[3];
+    private final int[] mTo = new int[3];
+    private final int[] mCurrent = new int[3];
+
+    private boolean mOpen;
+    private RandomAccessFile mFile;
+    private FileChannel mChannel;
+    private Runnable mSwitchAction;
+    private int mPhase = PHASE_IDLE;
+    private long mPhaseStart;
+    private int mFrame;
+    private int mWriteCount;
+
+    private final Runnable mFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onFrame();
+        }
+    };
+
+    /**
+     * @param node          continuous calibration node, or null if the
+     *                      panel does not have one
+     * @param handler       handler of the thread all node writes run on
+     */
+    public PanelTransition(String node, int max, long duration, long frameInterval,
+            int dimPercent, Handler handler) {
+        this(node, max, duration, frameInterval, dimPercent, handler, SYSTEM_CLOCK);
+    }
+
+    PanelTransition(String node, int max, long duration, long frameInterval,
+            int dimPercent, Handler handler, Clock clock) {
+        mNode = node;
+        mMax = max;
+        mDuration = duration;
+        mFrameInterval = frameInterval;
+        mDimPercent = dimPercent;
+        mHandler = handler;
+        mClock = clock;
+    }
+
+    public boolean isAvailable() {
+        return !TextUtils.isEmpty(mNode) && mDuration > 0 && Utils.fileWritable(mNode);
+    }
+
+    /**
+     * Fades out, runs the switch and fades back in. Must be called on the
+     * handler's thread. Without a calibration node the switch runs at once.
+     */
+    public void run(Runnable switchAction) {
+        if (mPhase != PHASE_IDLE) {
+            // Collapse the running transition so its switch still happens
+            // before the new one fades out from the current gains
+            mHandler.removeCallbacks(mFrameRunnable);
+            Runnable pending = mSwitchAction;
+            mSwitchAction = null;
+            if (pending != null) {
+                pending.run();
+            }
+        } else if (!isAvailable() || !open()) {
+            switchAction.run();
+            return;
+        }
+
+        mSwitchAction = switchAction;
+        System.arraycopy(mPhase == PHASE_IDLE ? mBase : mCurrent, 0, mFrom, 0, 3);
+        for (int i = 0; i < 3; i++) {
+            mTo[i] = mBase[i] * mDimPercent / 100;
+        }
+        startPhase(PHASE_FADE_OUT);
+    }
+
+    public boolean isRunning() {
+        return mPhase != PHASE_IDLE;
+    }
+
+    public int getWriteCount() {
+        return mWriteCount;
+    }
+
+    private boolean open() {
+        String line = Utils.readLine(mNode);
+        if (line == null) {
+            return false;
+        }
+        String[] values = line.trim().split("\\s+");
+        if (values.length < 3) {
+            return false;
+        }
+        try {
+            for (int i = 0; i < 3; i++) {
+                mBase[i] = Math.min(mMax, Integer.parseInt(values[i]));
+                mCurrent[i] = mBase[i];
+            }
+            // Backends without files take each frame as a plain node write
+            File file = Nodes.getBackend().getFile(mNode);
+            if (file != null) {
+                mFile = new RandomAccessFile(file, "rw");
+                mChannel = mFile.getChannel();
+            }
+            mOpen = true;
+            return true;
+        } catch (NumberFormatException | IOException e) {
+            Log.w(TAG, "Unable to open " + mNode, e);
+            close();
+            return false;
+        }
+    }
+
+    private void close() {
+        try {
+            if (mFile != null) {
+                mFile.close();
+            }
+        } catch (IOException e) {
+            // Ignored, not much we can do anyway
+        }
+        mFile = null;
+        mChannel = null;
+        mOpen = false;
+    }
+
+    private void startPhase(int phase) {
+        mPhase = phase;
+        mPhaseStart = mClock.uptimeMillis();
+        mFrame = 0;
+        onFrame();
+    }
+
+    private void scheduleFrame() {
+        // Scheduled against the phase start so late frames do not drift
+        final long delay = mPhaseStart + mFrame * mFrameInterval - mClock.uptimeMillis();
+        mHandler.postDelayed(mFrameRunnable, Math.max(0, delay));
+    }
+
+    private void onFrame() {
+        long now = mClock.uptimeMillis();
+        float progress = Math.min(1f, (now - mPhaseStart) / (float) mDuration);
+        for (int i = 0; i < 3; i++) {
+            mCurrent[i] = mFrom[i] + Math.round((mTo[i] - mFrom[i]) * progress);
+        }
+        if (!write(mCurrent)) {
+            finish();
+            return;
+        }
+
+        if (progress < 1f) {
+            mFrame++;
+            scheduleFrame();
+        } else if (mPhase == PHASE_FADE_OUT) {
+            Runnable action = mSwitchAction;
+            mSwitchAction = null;
+            if (action != null) {
+                action.run();
+            }
+            System.arraycopy(mCurrent, 0, mFrom, 0, 3);
+            System.arraycopy(mBase, 0, mTo, 0, 3);
+            // The dimmed frame is on the panel already, fade in from the next
+            mPhase = PHASE_FADE_IN;
+            mPhaseStart = now;
+            mFrame = 1;
+            scheduleFrame();
+        } else {
+            finish();
+        }
+    }
+
+    private void finish() {
+        mHandler.removeCallbacks(mFrameRunnable);
+        Runnable action = mSwitchAction;
+        mSwitchAction = null;
+        if (action != null) {
+            action.run();
+        }
+        if (mPhase == PHASE_FADE_OUT || !equalsBase(mCurrent)) {
+            write(mBase);
+        }
+        mPhase = PHASE_IDLE;
+        close();
+    }
+
+    private boolean equalsBase(int[] values) {
+        return values[0] == mBase[0] && values[1] == mBase[1] && values[2] == mBase[2];
+    }
+
+    private boolean write(int[] rgb) {
+        if (!mOpen) {
+            return false;
+        }
+        mBuffer.clear();
+        for (int i = 0; i < 3; i++) {
+            putPadded(rgb[i]);
+            mBuffer.put((byte) (i < 2 ? ' ' : '\n'));
+        }
+        mBuffer.flip();
+        try {
+            if (mChannel != null) {
+                mChannel.write(mBuffer, 0);
+            } else {
+                Nodes.getBackend().write(mNode, new String(mBuffer.array(), 0, FRAME_SIZE));
+            }
+            mWriteCount++;
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Write to " + mNode + " failed", e);
+            return false;
+        }
+    }
+
+    private void putPadded(int value) {
+        value = Math.max(0, Math.min(value, 999));
+        mBuffer.put((byte) ('0' + value / 100));
+        mBuffer.put((byte) ('0' + value / 10 % 10));
+        mBuffer.put((byte) ('0' + value % 10));
+    }
+}
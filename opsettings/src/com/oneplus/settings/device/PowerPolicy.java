@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+/**
+ * Decides which device features are restricted to save power.
+ *
+ * Restrictions apply while battery saver is on, or while the battery is
+ * low and not charging. The low state has hysteresis so a level hovering
+ * around the threshold does not flap. Every change of the restriction set
+ * is reported as one callback, with the full set and what changed.
+ *
+ * This class only uses plain Java, so the policy can be exercised on any
+ * host.
+ */
+public class PowerPolicy {
+
+    public interface Callback {
+        void onRestrictionsChanged(int restrictions, int changed);
+    }
+
+    public static final int RESTRICT_BLINK = 1 << 0;
+    public static final int RESTRICT_HBM = 1 << 1;
+    public static final int RESTRICT_SPECTRUM = 1 << 2;
+    public static final int RESTRICT_MUSIC_GESTURES = 1 << 3;
+
+    private final Callback mCallback;
+    private final int mEnabledRestrictions;
+    private final int mLowLevel;
+    private final int mRestoreLevel;
+
+    private boolean mPowerSave;
+    private boolean mLowBattery;
+    private int mRestrictions;
+    private boolean mReported;
+
+    /**
+     * @param restrictions  the RESTRICT_* flags applied while saving power
+     * @param lowLevel      battery level (%) at or below which the battery
+     *                      counts as low
+     * @param restoreLevel  battery level (%) at or above which it does not
+     *                      anymore
+     */
+    public PowerPolicy(int restrictions, int lowLevel, int restoreLevel, Callback callback) {
+        mCallback = callback;
+        mEnabledRestrictions = restrictions;
+        mLowLevel = lowLevel;
+        mRestoreLevel = Math.max(lowLevel, restoreLevel);
+    }
+
+    /**
+     * Updates the power state, reporting a change of the restrictions. The
+     * first update reports every restriction as changed, so whatever a
+     * previous process left applied gets lifted.
+     *
+     * @param level     battery level in percent, or -1 if unknown
+     */
+    public void update(boolean powerSave, boolean plugged, int level) {
+        mPowerSave = powerSave;
+        if (plugged || level < 0) {
+            mLowBattery = false;
+        } else if (!mLowBattery && level <= mLowLevel) {
+            mLowBattery = true;
+        } else if (mLowBattery && level >= mRestoreLevel) {
+            mLowBattery = false;
+        }
+
+        final int restrictions = mPowerSave || mLowBattery ? mEnabledRestrictions : 0;
+        if (restrictions == mRestrictions && mReported) {
+            return;
+        }
+        final int changed = mReported ? restrictions ^ mRestrictions : mEnabledRestrictions;
+        mRestrictions = restrictions;
+        mReported = true;
+        mCallback.onRestrictionsChanged(restrictions, changed);
+    }
+
+    /**
+     * Lifts all restrictions, e.g. when the policy is shut down.
+     */
+    public void clear() {
+        mPowerSave = false;
+        mLowBattery = false;
+        if (mRestrictions != 0) {
+            final int changed = mRestrictions;
+            mRestrictions = 0;
+            mCallback.onRestrictionsChanged(0, changed);
+        }
+    }
+
+    public int getRestrictions() {
+        return mRestrictions;
+    }
+
+    public boolean isRestricted(int restriction) {
+        return (mRestrictions & restriction) != 0;
+    }
+
+    public boolean isPowerSave() {
+        return mPowerSave;
+    }
+
+    public boolean isLowBattery() {
+        return mLowBattery;
+    }
+}
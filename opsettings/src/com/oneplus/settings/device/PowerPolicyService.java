@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Resources;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.UserHandle;
+import android.util.Log;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+public class PowerPolicyService extends Service implements PowerPolicy.Callback {
+
+    private static final String TAG = "PowerPolicyService";
+
+    public static final String ACTION_UPDATE_POWER_POLICY
+            = "com.oneplus.settings.device.UPDATE_POWER_POLICY";
+    public static final String EXTRA_RESTRICTIONS = "restrictions";
+    public static final String EXTRA_MAX_BLINK_DURATION = "max_blink_duration";
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private PowerPolicy mPolicy;
+    private PowerManager mPowerManager;
+
+    private long mMaxBlinkDuration;
+
+    private boolean mPlugged;
+    private int mLevel = -1;
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())) {
+                mPlugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+                int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+                int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+                mLevel = level >= 0 && scale > 0 ? level * 100 / scale : -1;
+            }
+            mPolicy.update(mPowerManager.isPowerSaveMode(), mPlugged, mLevel);
+        }
+    };
+
+    public static void update(Context context, boolean enabled) {
+        Intent intent = new Intent(context, PowerPolicyService.class);
+        if (enabled) {
+            context.startServiceAsUser(intent, UserHandle.CURRENT);
+        } else {
+            context.stopServiceAsUser(intent, UserHandle.CURRENT);
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        FeatureCounters.init(this);
+        Resources res = getResources();
+        int restrictions = 0;
+        if (res.getBoolean(R.bool.config_powerPolicyCapBlink)) {
+            restrictions |= PowerPolicy.RESTRICT_BLINK;
+        }
+        if (res.getBoolean(R.bool.config_powerPolicyDisableHbm)) {
+            restrictions |= PowerPolicy.RESTRICT_HBM;
+        }
+        if (res.getBoolean(R.bool.config_powerPolicySwitchSpectrum)
+                && res.getBoolean(R.bool.device_supports_spectrum)) {
+            restrictions |= PowerPolicy.RESTRICT_SPECTRUM;
+        }
+        if (res.getBoolean(R.bool.config_powerPolicyDisarmMusicGestures)) {
+            restrictions |= PowerPolicy.RESTRICT_MUSIC_GESTURES;
+        }
+        mMaxBlinkDuration = res.getInteger(R.integer.config_powerPolicyMaxBlinkMs);
+        mPolicy = new PowerPolicy(restrictions,
+                res.getInteger(R.integer.config_powerPolicyLowBatteryLevel),
+                res.getInteger(R.integer.config_powerPolicyRestoreBatteryLevel), this);
+        mPowerManager = getSystemService(PowerManager.class);
+
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        IntentFilter filter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+        filter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+        // The sticky battery intent delivers the current state right away
+        registerReceiver(mReceiver, filter, null, mHandler);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        unregisterReceiver(mReceiver);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mPolicy.clear();
+                SettingsStore.get(PowerPolicyService.this).flush();
+            }
+        });
+        mThread.quitSafely();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public void onRestrictionsChanged(int restrictions, int changed) {
+        Log.i(TAG, "Restrictions " + Integer.toBinaryString(restrictions)
+                + " (powerSave=" + mPolicy.isPowerSave()
+                + " lowBattery=" + mPolicy.isLowBattery() + ")");
+        if ((changed & PowerPolicy.RESTRICT_HBM) != 0) {
+            HBMModeSwitch.setThrottled(this, HBMModeSwitch.THROTTLE_POWER,
+                    (restrictions & PowerPolicy.RESTRICT_HBM) != 0);
+        }
+        if ((changed & PowerPolicy.RESTRICT_SPECTRUM) != 0) {
+            SpectrumProfile.setThrottled(this, SpectrumProfile.THROTTLE_POWER,
+                    (restrictions & PowerPolicy.RESTRICT_SPECTRUM) != 0);
+        }
+        if ((changed & PowerPolicy.RESTRICT_MUSIC_GESTURES) != 0) {
+            GestureGate.setMusicRestricted(this,
+                    (restrictions & PowerPolicy.RESTRICT_MUSIC_GESTURES) != 0);
+        }
+        if ((changed & PowerPolicy.RESTRICT_BLINK) != 0) {
+            // The key handler applies everything on its side at once
+            Intent intent = new Intent(ACTION_UPDATE_POWER_POLICY);
+            intent.putExtra(EXTRA_RESTRICTIONS, restrictions);
+            intent.putExtra(EXTRA_MAX_BLINK_DURATION, mMaxBlinkDuration);
+            intent.setFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY);
+            sendBroadcastAsUser(intent, UserHandle.CURRENT);
+        }
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("PowerPolicyService:");
+        if (mPolicy == null) {
+            return;
+        }
+        pw.println("  level=" + mLevel + " plugged=" + mPlugged);
+        pw.println("  powerSave=" + mPolicy.isPowerSave());
+        pw.println("  lowBattery=" + mPolicy.isLowBattery());
+        pw.println("  restrictions=" + Integer.toBinaryString(mPolicy.getRestrictions()));
+        pw.println("  spectrumThrottled="
+                + Integer.toBinaryString(SpectrumProfile.getThrottled(this)));
+        pw.println("  spectrumUserProfile=" + SpectrumProfile.getUserProfile(this));
+    }
+}
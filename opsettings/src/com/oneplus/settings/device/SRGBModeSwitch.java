@@ -23,9 +23,12 @@ import android.preference.Preference;
 import android.preference.Preference.OnPreferenceChangeListener;
 import android.preference.PreferenceManager;
 
+import com.android.internal.annotations.VisibleForTesting;
+
 public class SRGBModeSwitch implements OnPreferenceChangeListener {
 
-    private static final String FILE = "/sys/devices/virtual/graphics/fb0/srgb";
+    @VisibleForTesting
+    static final String FILE = "/sys/devices/virtual/graphics/fb0/srgb";
 
     public static String getFile() {
         if (Utils.fileWritable(FILE)) {
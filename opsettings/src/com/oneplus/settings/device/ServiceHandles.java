@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.app.ActivityManager;
+import android.app.IActivityManager;
+import android.app.INotificationManager;
+import android.app.ITaskStackListener;
+import android.app.KeyguardManager;
+import android.content.Context;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraManager;
+import android.media.IAudioService;
+import android.os.IBinder;
+import android.os.IInterface;
+import android.os.PowerManager;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.provider.Settings;
+import android.util.Log;
+import android.view.IWindowManager;
+
+import java.util.List;
+
+/**
+ * System services used by the key handler and the slider controllers.
+ *
+ * Binder interfaces are resolved once and only resolved again after their
+ * service died. Every call goes through here, so each one gets a trace
+ * section and a flight recorder entry with its latency; slow calls are
+ * logged as well.
+ *
+ * Tests can install a subclass that stubs the services out.
+ */
+public class ServiceHandles {
+
+    private static final String TAG = "ServiceHandles";
+
+    public static final int WINDOW = 0;
+    public static final int AUDIO = 1;
+    public static final int NOTIFICATION = 2;
+    public static final int KEYGUARD = 3;
+    public static final int CAMERA = 4;
+    public static final int SETTINGS = 5;
+    public static final int POWER = 6;
+    public static final int ACTIVITY = 7;
+
+    private static final long SLOW_CALL_NANOS = 20 * 1000000L;
+
+    private static ServiceHandles sInstance;
+
+    private final Context mContext;
+    private final Handle mWindow;
+    private final Handle mAudio;
+    private final Handle mNotification;
+    private final Handle mActivity;
+    private KeyguardManager mKeyguardManager;
+    private CameraManager mCameraManager;
+    private final PowerManager mPowerManager;
+    private final String[] mTraceNames = new String[FlightRecorder.SERVICE_NAMES.length];
+
+    public static synchronized ServiceHandles get(Context context) {
+        if (sInstance == null) {
+            sInstance = new ServiceHandles(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Replaces the shared instance, or drops it with null. Only meant for
+     * tests, and to be called before anything got the instance.
+     */
+    static synchronized void setInstance(ServiceHandles services) {
+        sInstance = services;
+    }
+
+    ServiceHandles(Context context) {
+        mContext = context;
+        mPowerManager = context.getSystemService(PowerManager.class);
+        for (int i = 0; i < mTraceNames.length; i++) {
+            mTraceNames[i] = "ipc " + FlightRecorder.SERVICE_NAMES[i];
+        }
+        mWindow = new Handle(Context.WINDOW_SERVICE) {
+            @Override
+            IInterface asInterface(IBinder binder) {
+                return IWindowManager.Stub.asInterface(binder);
+            }
+        };
+        mAudio = new Handle(Context.AUDIO_SERVICE) {
+            @Override
+            IInterface asInterface(IBinder binder) {
+                return IAudioService.Stub.asInterface(binder);
+            }
+        };
+        mNotification = new Handle(Context.NOTIFICATION_SERVICE) {
+            @Override
+            IInterface asInterface(IBinder binder) {
+                return INotificationManager.Stub.asInterface(binder);
+            }
+        };
+        mActivity = new Handle(Context.ACTIVITY_SERVICE) {
+            @Override
+            IInterface asInterface(IBinder binder) {
+                return IActivityManager.Stub.asInterface(binder);
+            }
+        };
+    }
+
+    /**
+     * Starts timing a call to a service.
+     *
+     * @return the start time to pass to {@link #end}
+     */
+    public long begin(int service) {
+        DeviceTrace.begin(mTraceNames[service]);
+        return System.nanoTime();
+    }
+
+    public void end(int service, long start) {
+        final long duration = System.nanoTime() - start;
+        DeviceTrace.end();
+        FlightRecorder.recordTimed(FlightRecorder.EVENT_IPC, service, 0, 0, start);
+        if (duration >= SLOW_CALL_NANOS) {
+            Log.w(TAG, "Slow " + mTraceNames[service] + " call: "
+                    + duration / 1000000 + "ms");
+        }
+    }
+
+    public boolean setRotationLocked(boolean locked, int rotation) {
+        IWindowManager wm = (IWindowManager) mWindow.get();
+        if (wm == null) {
+            return false;
+        }
+        final long start = begin(WINDOW);
+        try {
+            if (locked) {
+                wm.freezeRotation(rotation);
+            } else {
+                wm.thawRotation();
+            }
+            return true;
+        } catch (RemoteException e) {
+            Log.w(TAG, "Unable to set rotation lock", e);
+            return false;
+        } finally {
+            end(WINDOW, start);
+        }
+    }
+
+    public boolean setRingerModeInternal(int ringerMode) {
+        IAudioService audio = (IAudioService) mAudio.get();
+        if (audio == null) {
+            return false;
+        }
+        final long start = begin(AUDIO);
+        try {
+            audio.setRingerModeInternal(ringerMode, mContext.getOpPackageName());
+            return true;
+        } catch (RemoteException e) {
+            Log.w(TAG, "Unable to set ringer mode", e);
+            return false;
+        } finally {
+            end(AUDIO, start);
+        }
+    }
+
+    public boolean setZenMode(int zenMode, String reason) {
+        INotificationManager nm = (INotificationManager) mNotification.get();
+        if (nm == null) {
+            return false;
+        }
+        final long start = begin(NOTIFICATION);
+        try {
+            nm.setZenMode(zenMode, null, reason);
+            return true;
+        } catch (RemoteException e) {
+            Log.w(TAG, "Unable to set zen mode", e);
+            return false;
+        } finally {
+            end(NOTIFICATION, start);
+        }
+    }
+
+    public boolean registerTaskStackListener(ITaskStackListener listener) {
+        IActivityManager am = (IActivityManager) mActivity.get();
+        if (am == null) {
+            return false;
+        }
+        final long start = begin(ACTIVITY);
+        try {
+            am.registerTaskStackListener(listener);
+            return true;
+        } catch (RemoteException e) {
+            Log.w(TAG, "Unable to register task stack listener", e);
+            return false;
+        } finally {
+            end(ACTIVITY, start);
+        }
+    }
+
+    public void unregisterTaskStackListener(ITaskStackListener listener) {
+        IActivityManager am = (IActivityManager) mActivity.get();
+        if (am == null) {
+            return;
+        }
+        final long start = begin(ACTIVITY);
+        try {
+            am.unregisterTaskStackListener(listener);
+        } catch (RemoteException e) {
+            Log.w(TAG, "Unable to unregister task stack listener", e);
+        } finally {
+            end(ACTIVITY, start);
+        }
+    }
+
+    /**
+     * Returns the package of the top activity of the focused task, or null.
+     */
+    public String getTopPackage() {
+        IActivityManager am = (IActivityManager) mActivity.get();
+        if (am == null) {
+            return null;
+        }
+        final long start = begin(ACTIVITY);
+        try {
+            List<ActivityManager.RunningTaskInfo> tasks = am.getTasks(1);
+            if (tasks == null || tasks.isEmpty() || tasks.get(0).topActivity == null) {
+                return null;
+            }
+            return tasks.get(0).topActivity.getPackageName();
+        } catch (RemoteException e) {
+            Log.w(TAG, "Unable to get the top task", e);
+            return null;
+        } finally {
+            end(ACTIVITY, start);
+        }
+    }
+
+    public boolean isKeyguardSecure() {
+        final long start = begin(KEYGUARD);
+        try {
+            return getKeyguardManager().isKeyguardSecure();
+        } finally {
+            end(KEYGUARD, start);
+        }
+    }
+
+    public boolean isKeyguardLocked() {
+        final long start = begin(KEYGUARD);
+        try {
+            return getKeyguardManager().isKeyguardLocked();
+        } finally {
+            end(KEYGUARD, start);
+        }
+    }
+
+    public void setTorchMode(String cameraId, boolean enabled)
+            throws CameraAccessException {
+        final long start = begin(CAMERA);
+        try {
+            getCameraManager().setTorchMode(cameraId, enabled);
+        } finally {
+            end(CAMERA, start);
+        }
+    }
+
+    public boolean putSystemInt(String key, int value) {
+        final long start = begin(SETTINGS);
+        try {
+            return Settings.System.putIntForUser(mContext.getContentResolver(),
+                    key, value, UserHandle.USER_CURRENT);
+        } finally {
+            end(SETTINGS, start);
+        }
+    }
+
+    public void wakeUp(String reason) {
+        final long start = begin(POWER);
+        try {
+            mPowerManager.wakeUp(SystemClock.uptimeMillis(), reason);
+        } finally {
+            end(POWER, start);
+        }
+    }
+
+    public void goToSleep() {
+        final long start = begin(POWER);
+        try {
+            mPowerManager.goToSleep(SystemClock.uptimeMillis());
+        } finally {
+            end(POWER, start);
+        }
+    }
+
+    private synchronized KeyguardManager getKeyguardManager() {
+        // The keyguard service starts after the key handler
+        if (mKeyguardManager == null) {
+            mKeyguardManager = mContext.getSystemService(KeyguardManager.class);
+        }
+        return mKeyguardManager;
+    }
+
+    private synchronized CameraManager getCameraManager() {
+        if (mCameraManager == null) {
+            mCameraManager = mContext.getSystemService(CameraManager.class);
+        }
+        return mCameraManager;
+    }
+
+    private abstract class Handle implements IBinder.DeathRecipient {
+
+        private final String mName;
+        private IBinder mBinder;
+        private IInterface mInterface;
+
+        Handle(String name) {
+            mName = name;
+        }
+
+        abstract IInterface asInterface(IBinder binder);
+
+        synchronized IInterface get() {
+            if (mInterface != null) {
+                return mInterface;
+            }
+            IBinder binder = ServiceManager.getService(mName);
+            if (binder == null) {
+                Log.w(TAG, "Service " + mName + " is not available");
+                return null;
+            }
+            try {
+                binder.linkToDeath(this, 0);
+            } catch (RemoteException e) {
+                // Died before we got to it, try again next time
+                return null;
+            }
+            mBinder = binder;
+            mInterface = asInterface(binder);
+            return mInterface;
+        }
+
+        @Override
+        public void binderDied() {
+            synchronized (this) {
+                if (mBinder != null) {
+                    mBinder.unlinkToDeath(this, 0);
+                }
+                mBinder = null;
+                mInterface = null;
+            }
+            Log.w(TAG, "Service " + mName + " died");
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.v7.preference.PreferenceDataStore;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.android.internal.os.BackgroundThread;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The app's settings, kept in one binary file in device protected storage.
+ *
+ * The file is read once when the store is first used. Afterwards reads
+ * only look at memory, and changes are written out atomically from a
+ * background thread, several changes in a row with a single write, or
+ * right away by flush(). The
+ * preference screens use the store directly as their data store.
+ *
+ * The default shared preferences of older builds are moved into the store
+ * once, when it is first loaded. The app defaults to device protected
+ * storage, so they are readable at direct boot already.
+ */
+public final class SettingsStore extends PreferenceDataStore {
+
+    private static final String TAG = "SettingsStore";
+
+    private static final int MAGIC = 0x4f505353; // "OPSS"
+    private static final int VERSION = 1;
+
+    private static final int FLAG_MIGRATED = 1 << 0;
+
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_STRING = 5;
+
+    private static final String FILE_NAME = "settings";
+
+    private static SettingsStore sInstance;
+
+    private final Context mContext;
+    private final AtomicFile mFile;
+    private final ArrayMap<String, Object> mValues = new ArrayMap<>();
+    private int mFlags;
+    private boolean mWritePending;
+
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            write();
+        }
+    };
+
+    public static synchronized SettingsStore get(Context context) {
+        if (sInstance == null) {
+            sInstance = new SettingsStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SettingsStore(Context context) {
+        mContext = context;
+        File dir = context.createDeviceProtectedStorageContext().getFilesDir();
+        mFile = new AtomicFile(new File(dir, FILE_NAME));
+        read();
+        migrateIfNeeded();
+    }
+
+    @Override
+    public synchronized boolean getBoolean(String key, boolean defValue) {
+        Object value = mValues.get(key);
+        return value != null ? (Boolean) value : defValue;
+    }
+
+    @Override
+    public synchronized int getInt(String key, int defValue) {
+        Object value = mValues.get(key);
+        return value != null ? (Integer) value : defValue;
+    }
+
+    @Override
+    public synchronized long getLong(String key, long defValue) {
+        Object value = mValues.get(key);
+        return value != null ? (Long) value : defValue;
+    }
+
+    @Override
+    public synchronized float getFloat(String key, float defValue) {
+        Object value = mValues.get(key);
+        return value != null ? (Float) value : defValue;
+    }
+
+    @Override
+    public synchronized String getString(String key, String defValue) {
+        Object value = mValues.get(key);
+        return value != null ? (String) value : defValue;
+    }
+
+    public synchronized boolean contains(String key) {
+        return mValues.containsKey(key);
+    }
+
+    @Override
+    public void putBoolean(String key, boolean value) {
+        edit().putBoolean(key, value).apply();
+    }
+
+    @Override
+    public void putInt(String key, int value) {
+        edit().putInt(key, value).apply();
+    }
+
+    @Override
+    public void putLong(String key, long value) {
+        edit().putLong(key, value).apply();
+    }
+
+    @Override
+    public void putFloat(String key, float value) {
+        edit().putFloat(key, value).apply();
+    }
+
+    @Override
+    public void putString(String key, String value) {
+        edit().putString(key, value).apply();
+    }
+
+    /**
+     * Returns an editor whose changes become visible, and are written out,
+     * together.
+     */
+    public Editor edit() {
+        return new Editor();
+    }
+
+    /**
+     * Writes out pending changes on the calling thread. Receivers and
+     * services call this before they return, as their process may be
+     * killed before the background write runs.
+     */
+    public void flush() {
+        synchronized (mFile) {
+            synchronized (this) {
+                if (!mWritePending) {
+                    return;
+                }
+            }
+            writeLocked();
+        }
+    }
+
+    private synchronized void apply(ArrayMap<String, Object> changes) {
+        for (int i = 0; i < changes.size(); i++) {
+            Object value = changes.valueAt(i);
+            if (value != null) {
+                mValues.put(changes.keyAt(i), value);
+            } else {
+                mValues.remove(changes.keyAt(i));
+            }
+        }
+        scheduleWrite();
+    }
+
+    private void scheduleWrite() {
+        if (mWritePending) {
+            return;
+        }
+        mWritePending = true;
+        BackgroundThread.getHandler().post(mWriteRunnable);
+    }
+
+    /**
+     * Moves the default shared preferences of older builds into the store.
+     * They live in device protected storage like the store itself. Values
+     * already in the store are kept.
+     */
+    private void migrateIfNeeded() {
+        final String name = mContext.getPackageName() + "_preferences";
+        int count = 0;
+        synchronized (this) {
+            if ((mFlags & FLAG_MIGRATED) != 0) {
+                return;
+            }
+            SharedPreferences prefs = mContext.getSharedPreferences(name, Context.MODE_PRIVATE);
+            for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+                Object value = entry.getValue();
+                if (typeOf(value) == 0) {
+                    Log.w(TAG, "Not migrating " + entry.getKey() + " of unsupported type");
+                    continue;
+                }
+                if (!mValues.containsKey(entry.getKey())) {
+                    mValues.put(entry.getKey(), value);
+                    count++;
+                }
+            }
+            mFlags |= FLAG_MIGRATED;
+        }
+        // Only drop the old preferences once the store holds them
+        if (write()) {
+            mContext.deleteSharedPreferences(name);
+            Log.i(TAG, "Migrated " + count + " preferences");
+        }
+    }
+
+    private static byte typeOf(Object value) {
+        if (value instanceof Boolean) {
+            return TYPE_BOOLEAN;
+        } else if (value instanceof Integer) {
+            return TYPE_INT;
+        } else if (value instanceof Long) {
+            return TYPE_LONG;
+        } else if (value instanceof Float) {
+            return TYPE_FLOAT;
+        } else if (value instanceof String) {
+            return TYPE_STRING;
+        }
+        return 0;
+    }
+
+    private boolean write() {
+        // Writes are serialized, so an older snapshot never replaces a newer one
+        synchronized (mFile) {
+            return writeLocked();
+        }
+    }
+
+    private boolean writeLocked() {
+        final ArrayMap<String, Object> values;
+        final int flags;
+        synchronized (this) {
+            mWritePending = false;
+            values = new ArrayMap<>(mValues);
+            flags = mFlags;
+        }
+
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(flags);
+            out.writeInt(values.size());
+            for (int i = 0; i < values.size(); i++) {
+                Object value = values.valueAt(i);
+                out.writeUTF(values.keyAt(i));
+                out.writeByte(typeOf(value));
+                switch (typeOf(value)) {
+                    case TYPE_BOOLEAN:
+                        out.writeBoolean((Boolean) value);
+                        break;
+                    case TYPE_INT:
+                        out.writeInt((Integer) value);
+                        break;
+                    case TYPE_LONG:
+                        out.writeLong((Long) value);
+                        break;
+                    case TYPE_FLOAT:
+                        out.writeFloat((Float) value);
+                        break;
+                    case TYPE_STRING:
+                        out.writeUTF((String) value);
+                        break;
+                }
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write settings", e);
+            mFile.failWrite(fos);
+            return false;
+        }
+    }
+
+    private void read() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(mFile.openRead());
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "Ignoring unknown settings file");
+                return;
+            }
+            final int flags = in.readInt();
+            final int count = in.readInt();
+            ArrayMap<String, Object> values = new ArrayMap<>(count);
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                switch (in.readByte()) {
+                    case TYPE_BOOLEAN:
+                        values.put(key, in.readBoolean());
+                        break;
+                    case TYPE_INT:
+                        values.put(key, in.readInt());
+                        break;
+                    case TYPE_LONG:
+                        values.put(key, in.readLong());
+                        break;
+                    case TYPE_FLOAT:
+                        values.put(key, in.readFloat());
+                        break;
+                    case TYPE_STRING:
+                        values.put(key, in.readUTF());
+                        break;
+                    default:
+                        throw new IOException("Unknown type of " + key);
+                }
+            }
+            mValues.putAll(values);
+            mFlags = flags;
+        } catch (FileNotFoundException e) {
+            // Nothing saved yet
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read settings", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignored, not much we can do anyway
+                }
+            }
+        }
+    }
+
+    public final class Editor {
+
+        private final ArrayMap<String, Object> mChanges = new ArrayMap<>();
+
+        private Editor() {
+        }
+
+        public Editor putBoolean(String key, boolean value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        public Editor putInt(String key, int value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        public Editor putLong(String key, long value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        public Editor putFloat(String key, float value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        /**
+         * Sets a string, or removes the setting if value is null.
+         */
+        public Editor putString(String key, String value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        public Editor remove(String key) {
+            mChanges.put(key, null);
+            return this;
+        }
+
+        public void apply() {
+            SettingsStore.this.apply(mChanges);
+        }
+    }
+}
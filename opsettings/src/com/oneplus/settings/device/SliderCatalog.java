@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.util.Log;
+
+/**
+ * All slider usages and their actions: IDs, labels and the controller
+ * each action belongs to, plus the overlayable default actions.
+ *
+ * The table is built once and shared by the settings UI and the key
+ * handler, so validating an update or a preference value is an array
+ * lookup.
+ */
+public final class SliderCatalog {
+
+    private static final String TAG = "SliderCatalog";
+
+    // Usages, which are also the controller IDs
+    public static final int USAGE_NOTIFICATION = 1;
+    public static final int USAGE_FLASHLIGHT = 2;
+    public static final int USAGE_BRIGHTNESS = 3;
+    public static final int USAGE_ROTATION = 4;
+    public static final int USAGE_RINGER = 5;
+    public static final int USAGE_NOTIFICATION_RINGER = 6;
+    public static final int USAGE_COUNT = 7;
+
+    // Actions, the tens digit is the usage
+    public static final int NOTIFICATION_TOTAL_SILENCE = 10;
+    public static final int NOTIFICATION_PRIORITY_ONLY = 12;
+    public static final int NOTIFICATION_ALL = 13;
+
+    public static final int FLASHLIGHT_OFF = 20;
+    public static final int FLASHLIGHT_ON = 21;
+    public static final int FLASHLIGHT_BLINK = 22;
+
+    public static final int BRIGHTNESS_AUTO = 30;
+    public static final int BRIGHTNESS_BRIGHTEST = 31;
+    public static final int BRIGHTNESS_DARKEST = 32;
+
+    public static final int ROTATION_AUTO = 40;
+    public static final int ROTATION_0 = 41;
+    public static final int ROTATION_90 = 42;
+    public static final int ROTATION_270 = 43;
+    public static final int ROTATION_PER_APP = 44;
+
+    public static final int RINGER_NORMAL = 50;
+    public static final int RINGER_VIBRATE = 51;
+    public static final int RINGER_SILENT = 52;
+
+    public static final int NOTIFICATION_RINGER_TOTAL_SILENCE = 60;
+    public static final int NOTIFICATION_RINGER_PRIORITY_ONLY = 62;
+    public static final int NOTIFICATION_RINGER_ALL = 63;
+    public static final int NOTIFICATION_RINGER_VIBRATE = 64;
+    public static final int NOTIFICATION_RINGER_SILENT = 65;
+
+    private static final int ACTION_LIMIT = 70;
+
+    // Actions of each usage, in the order they are listed
+    private static final int[][] ACTIONS = new int[USAGE_COUNT][];
+    private static final int[][] LABELS = new int[USAGE_COUNT][];
+    private static final int[] USAGE_LABELS = new int[USAGE_COUNT];
+    private static final int[] DEFAULTS_RES_IDS = new int[USAGE_COUNT];
+
+    // Usage of each action, 0 for unknown actions
+    private static final int[] ACTION_USAGES = new int[ACTION_LIMIT];
+    private static final String[] ACTION_VALUES = new String[ACTION_LIMIT];
+
+    private static int[][] sDefaults;
+
+    static {
+        add(USAGE_NOTIFICATION, R.string.notification_slider_for_notification,
+                R.array.config_defaultSliderActionsForNotification,
+                new int[] {
+                    NOTIFICATION_TOTAL_SILENCE,
+                    NOTIFICATION_PRIORITY_ONLY,
+                    NOTIFICATION_ALL
+                }, new int[] {
+                    R.string.notification_slider_mode_total_silence,
+                    R.string.notification_slider_mode_priority_only,
+                    R.string.notification_slider_mode_none
+                });
+        add(USAGE_FLASHLIGHT, R.string.notification_slider_for_flashlight,
+                R.array.config_defaultSliderActionsForFlashlight,
+                new int[] {
+                    FLASHLIGHT_OFF,
+                    FLASHLIGHT_ON,
+                    FLASHLIGHT_BLINK
+                }, new int[] {
+                    R.string.notification_slider_flashlight_off,
+                    R.string.notification_slider_flashlight_on,
+                    R.string.notification_slider_flashlight_blink
+                });
+        add(USAGE_BRIGHTNESS, R.string.notification_slider_for_brightness,
+                R.array.config_defaultSliderActionsForBrightness,
+                new int[] {
+                    BRIGHTNESS_AUTO,
+                    BRIGHTNESS_BRIGHTEST,
+                    BRIGHTNESS_DARKEST
+                }, new int[] {
+                    R.string.notification_slider_brightness_auto,
+                    R.string.notification_slider_brightness_brightest,
+                    R.string.notification_slider_brightness_darkest
+                });
+        add(USAGE_ROTATION, R.string.notification_slider_for_rotation,
+                R.array.config_defaultSliderActionsForRotation,
+                new int[] {
+                    ROTATION_AUTO,
+                    ROTATION_0,
+                    ROTATION_90,
+                    ROTATION_270,
+                    ROTATION_PER_APP
+                }, new int[] {
+                    R.string.notification_slider_rotation_auto,
+                    R.string.notification_slider_rotation_portrait,
+                    R.string.notification_slider_rotation_landscape_90,
+                    R.string.notification_slider_rotation_landscape_270,
+                    R.string.notification_slider_rotation_per_app
+                });
+        add(USAGE_RINGER, R.string.notification_slider_for_ringer,
+                R.array.config_defaultSliderActionsForRinger,
+                new int[] {
+                    RINGER_NORMAL,
+                    RINGER_VIBRATE,
+                    RINGER_SILENT
+                }, new int[] {
+                    R.string.notification_slider_ringer_normal,
+                    R.string.notification_slider_ringer_vibrate,
+                    R.string.notification_slider_ringer_silent
+                });
+        add(USAGE_NOTIFICATION_RINGER, R.string.notification_slider_for_notification_ringer,
+                R.array.config_defaultSliderActionsForNotificationRinger,
+                new int[] {
+                    NOTIFICATION_RINGER_TOTAL_SILENCE,
+                    NOTIFICATION_RINGER_SILENT,
+                    NOTIFICATION_RINGER_PRIORITY_ONLY,
+                    NOTIFICATION_RINGER_VIBRATE,
+                    NOTIFICATION_RINGER_ALL
+                }, new int[] {
+                    R.string.notification_slider_mode_total_silence,
+                    R.string.notification_slider_ringer_silent,
+                    R.string.notification_slider_mode_priority_only,
+                    R.string.notification_slider_ringer_vibrate,
+                    R.string.notification_slider_mode_none
+                });
+    }
+
+    private SliderCatalog() {
+        // This class is not supposed to be instantiated
+    }
+
+    private static void add(int usage, int label, int defaultsResId, int[] actions,
+            int[] labels) {
+        USAGE_LABELS[usage] = label;
+        DEFAULTS_RES_IDS[usage] = defaultsResId;
+        ACTIONS[usage] = actions;
+        LABELS[usage] = labels;
+        for (int action : actions) {
+            ACTION_USAGES[action] = usage;
+            ACTION_VALUES[action] = String.valueOf(action);
+        }
+    }
+
+    public static boolean isValidUsage(int usage) {
+        return usage > 0 && usage < USAGE_COUNT && ACTIONS[usage] != null;
+    }
+
+    /**
+     * Returns the usage (controller ID) an action belongs to, or 0.
+     */
+    public static int getUsage(int action) {
+        return action >= 0 && action < ACTION_LIMIT ? ACTION_USAGES[action] : 0;
+    }
+
+    /**
+     * Checks that actions holds one action of the usage per slider position.
+     */
+    public static boolean isValid(int usage, int[] actions) {
+        if (!isValidUsage(usage) || actions == null || actions.length != 3) {
+            return false;
+        }
+        for (int action : actions) {
+            if (getUsage(action) != usage) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static int getUsageLabel(int usage) {
+        return USAGE_LABELS[usage];
+    }
+
+    public static int[] getActions(int usage) {
+        return ACTIONS[usage].clone();
+    }
+
+    public static int[] getActionLabels(int usage) {
+        return LABELS[usage].clone();
+    }
+
+    /**
+     * Returns the preference value of an action.
+     */
+    public static String toValue(int action) {
+        return ACTION_VALUES[action];
+    }
+
+    /**
+     * Returns the usage or action stored in a preference value, or -1 if
+     * the value is not a known ID.
+     */
+    public static int fromValue(String value) {
+        if (value == null || value.isEmpty() || value.length() > 2) {
+            return -1;
+        }
+        int id = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            id = id * 10 + c - '0';
+        }
+        return isValidUsage(id) || getUsage(id) != 0 ? id : -1;
+    }
+
+    /**
+     * Returns the default actions of a usage. They come from overlayable
+     * config and are only loaded the first time.
+     */
+    public static int[] getDefaultActions(Context context, int usage) {
+        synchronized (SliderCatalog.class) {
+            if (sDefaults == null) {
+                sDefaults = loadDefaults(context);
+            }
+        }
+        return sDefaults[usage] != null ? sDefaults[usage].clone() : null;
+    }
+
+    private static int[][] loadDefaults(Context context) {
+        int[][] defaults = new int[USAGE_COUNT][];
+        Resources res = Utils.getPackageResources(context);
+        if (res == null) {
+            return defaults;
+        }
+        for (int usage = 1; usage < USAGE_COUNT; usage++) {
+            String[] values = res.getStringArray(DEFAULTS_RES_IDS[usage]);
+            int[] actions = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                actions[i] = fromValue(values[i]);
+            }
+            if (isValid(usage, actions)) {
+                defaults[usage] = actions;
+            } else {
+                Log.e(TAG, "Invalid default actions for usage " + usage);
+                int[] fallback = ACTIONS[usage];
+                defaults[usage] = new int[] { fallback[0], fallback[1], fallback[2] };
+            }
+        }
+        return defaults;
+    }
+}
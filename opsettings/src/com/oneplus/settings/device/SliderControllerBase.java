@@ -22,29 +22,39 @@ import android.os.Vibrator;
 import android.provider.Settings;
 import android.util.Log;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.oneplus.settings.device.utils.FileUtils;
 
 public abstract class SliderControllerBase {
 
     private static final String TAG = "SliderControllerBase";
 
-    private static final int KEY_SLIDER_TOP = 601;
-    private static final int KEY_SLIDER_MIDDLE = 602;
-    private static final int KEY_SLIDER_BOTTOM = 603;
+    @VisibleForTesting
+    static final int KEY_SLIDER_TOP = 601;
+    @VisibleForTesting
+    static final int KEY_SLIDER_MIDDLE = 602;
+    @VisibleForTesting
+    static final int KEY_SLIDER_BOTTOM = 603;
 
-    private static final String SLIDER_STATE = "/sys/class/switch/tri-state-key/state";
+    @VisibleForTesting
+    static final String SLIDER_STATE = "/sys/class/switch/tri-state-key/state";
 
     private static final String KEY_GESTURE_HAPTIC_FEEDBACK =
             "touchscreen_gesture_haptic_feedback";
 
     protected final Context mContext;
+    protected final ServiceHandles mServices;
 
     private Vibrator mVibrator;
 
     private int[] mActions = null;
 
+    private final String mTraceName;
+
     public SliderControllerBase(Context context) {
         mContext = context;
+        mServices = ServiceHandles.get(context);
+        mTraceName = getClass().getSimpleName() + ".processAction";
         mVibrator = context.getSystemService(Vibrator.class);
         if (mVibrator == null || !mVibrator.hasVibrator()) {
             mVibrator = null;
@@ -65,23 +75,47 @@ public abstract class SliderControllerBase {
 
     protected abstract boolean processAction(int action);
 
+    private boolean tracedProcessAction(int action) {
+        DeviceTrace.begin(mTraceName);
+        try {
+            return processAction(action);
+        } finally {
+            DeviceTrace.end();
+        }
+    }
+
     public final boolean processEvent(int key) {
         if (mActions == null) {
             return false;
         }
+        DeviceTrace.begin("SliderControllerBase.processEvent");
+        try {
+            return processEventTraced(key);
+        } finally {
+            DeviceTrace.end();
+        }
+    }
 
+    private boolean processEventTraced(int key) {
+        final long start = System.nanoTime();
         boolean processed = false;
+        int action = -1;
         switch (key) {
             case KEY_SLIDER_TOP:
-                processed = processAction(mActions[0]);
+                action = mActions[0];
                 break;
             case KEY_SLIDER_MIDDLE:
-                processed = processAction(mActions[1]);
+                action = mActions[1];
                 break;
             case KEY_SLIDER_BOTTOM:
-                processed = processAction(mActions[2]);
+                action = mActions[2];
                 break;
         }
+        if (action >= 0) {
+            processed = tracedProcessAction(action);
+        }
+        FlightRecorder.recordTimed(FlightRecorder.EVENT_SLIDER, key, action,
+                processed ? 1 : 0, start);
 
         if (processed) {
             doHapticFeedback();
@@ -97,11 +131,18 @@ public abstract class SliderControllerBase {
             return;
         }
 
+        DeviceTrace.begin("SliderControllerBase.restoreState");
         try {
+            final long start = System.nanoTime();
             int state = Integer.parseInt(FileUtils.readOneLine(SLIDER_STATE));
-            processAction(mActions[state - 1]);
+            int action = mActions[state - 1];
+            boolean processed = tracedProcessAction(action);
+            FlightRecorder.recordTimed(FlightRecorder.EVENT_SLIDER,
+                    KEY_SLIDER_TOP + state - 1, action, processed ? 1 : 0, start);
         } catch (Exception e) {
             Log.e(TAG, "Failed to restore slider state", e);
+        } finally {
+            DeviceTrace.end();
         }
     }
 
@@ -113,6 +154,7 @@ public abstract class SliderControllerBase {
                 KEY_GESTURE_HAPTIC_FEEDBACK, 1) != 0;
         if (enabled) {
             mVibrator.vibrate(50);
+            FeatureCounters.increment(FeatureCounters.VIBRATIONS);
         }
     }
 
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.os.SystemProperties;
+import android.util.Log;
+
+import com.oneplus.settings.device.utils.Constants;
+
+/**
+ * Steps the Spectrum profile down while it is throttled, for any number of
+ * reasons at once, and restores the user's profile once none is left.
+ *
+ * The user's profile, the reasons and the profile applied for them are
+ * kept in the settings store, so they survive a restart of the process.
+ * If the profile differs from the applied one, the user picked it since,
+ * and it becomes the profile to restore.
+ */
+public final class SpectrumProfile {
+
+    private static final String TAG = "SpectrumProfile";
+
+    // Reasons the profile can be stepped down for
+    public static final int THROTTLE_THERMAL = 1 << 0;
+    public static final int THROTTLE_POWER = 1 << 1;
+
+    private static final String DEFAULT_PROFILE = "0";
+
+    private SpectrumProfile() {
+        // This class is not supposed to be instantiated
+    }
+
+    public static synchronized void setThrottled(Context context, int reason,
+            boolean throttled) {
+        final Resources res = context.getResources();
+        if (!res.getBoolean(R.bool.device_supports_spectrum)) {
+            return;
+        }
+        final SettingsStore prefs = SettingsStore.get(context);
+        final int throttledMask = prefs.getInt(Constants.KEY_SPECTRUM_THROTTLED, 0);
+        final int mask = throttled ? throttledMask | reason : throttledMask & ~reason;
+        final String current = SystemProperties.get(Constants.SPECTRUM_SYSTEM_PROPERTY,
+                DEFAULT_PROFILE);
+        String user = prefs.getString(Constants.KEY_SPECTRUM_USER_PROFILE, null);
+        if (throttledMask == 0 || user == null
+                || !current.equals(prefs.getString(Constants.KEY_SPECTRUM_APPLIED_PROFILE, null))) {
+            user = current;
+        }
+
+        final String target = getTarget(res, user, mask);
+        if (!target.equals(current)) {
+            Log.i(TAG, "Switching from profile " + current + " to " + target
+                    + " (throttled=" + Integer.toBinaryString(mask) + ")");
+            SystemProperties.set(Constants.SPECTRUM_SYSTEM_PROPERTY, target);
+        }
+        prefs.edit()
+                .putInt(Constants.KEY_SPECTRUM_THROTTLED, mask)
+                .putString(Constants.KEY_SPECTRUM_USER_PROFILE, mask != 0 ? user : null)
+                .putString(Constants.KEY_SPECTRUM_APPLIED_PROFILE, mask != 0 ? target : null)
+                .apply();
+    }
+
+    public static int getThrottled(Context context) {
+        return SettingsStore.get(context).getInt(Constants.KEY_SPECTRUM_THROTTLED, 0);
+    }
+
+    /**
+     * Returns the profile restored once nothing throttles it, or null if
+     * nothing does.
+     */
+    public static String getUserProfile(Context context) {
+        return SettingsStore.get(context).getString(Constants.KEY_SPECTRUM_USER_PROFILE, null);
+    }
+
+    private static String getTarget(Resources res, String profile, int mask) {
+        if ((mask & THROTTLE_POWER) != 0) {
+            profile = res.getString(R.string.config_powerPolicySpectrumProfile);
+        }
+        if ((mask & THROTTLE_THERMAL) != 0) {
+            for (String hot : res.getStringArray(R.array.config_thermalSpectrumHotProfiles)) {
+                if (hot.equals(profile)) {
+                    return res.getString(R.string.config_thermalSpectrumFallbackProfile);
+                }
+            }
+        }
+        return profile;
+    }
+}
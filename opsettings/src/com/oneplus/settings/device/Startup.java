@@ -20,15 +20,12 @@ import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
-import android.preference.PreferenceManager;
 import android.os.ServiceManager;
 import android.util.Log;
 
-import java.io.File;
-
 import com.oneplus.settings.device.utils.Constants;
+import com.oneplus.settings.device.utils.DeviceNode;
 import com.oneplus.settings.device.utils.FileUtils;
 
 public class Startup extends BroadcastReceiver {
@@ -53,7 +50,18 @@ public class Startup extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context context, Intent intent) {
+        DeviceTrace.begin("Startup.onReceive");
+        try {
+            restoreSettings(context, intent);
+            SettingsStore.get(context).flush();
+        } finally {
+            DeviceTrace.end();
+        }
+    }
+
+    private void restoreSettings(Context context, Intent intent) {
         final String action = intent.getAction();
+        FeatureCounters.init(context);
         if (Intent.ACTION_BOOT_COMPLETED.equals(action)
                 || Intent.ACTION_PRE_BOOT_COMPLETED.equals(action)) {
             // Disable touchscreen gesture settings if needed
@@ -62,22 +70,21 @@ public class Startup extends BroadcastReceiver {
             } else {
                 enableComponent(context, DeviceSettingsActivity.class.getName());
                 // Restore nodes to saved preference values
-                for (String pref : Constants.sGesturePrefKeys) {
-                    boolean value = Constants.isPreferenceEnabled(context, pref);
-                    String node = Constants.sBooleanNodePreferenceMap.get(pref);
-                    // If music gestures are toggled, update values of all music gesture proc files
-                    if (pref.equals(Constants.TOUCHSCREEN_MUSIC_GESTURE_KEY)) {
-                        for (String music_nodes : Constants.TOUCHSCREEN_MUSIC_GESTURES_ARRAY) {
-                            if (!FileUtils.writeLine(music_nodes, value ? "1" : "0")) {
-                                Log.w(TAG, "Write to node " + music_nodes +
-                                        " failed while restoring saved preference values");
-                            }
+                for (int i = 0; i < DeviceNode.count(); i++) {
+                    DeviceNode node = DeviceNode.get(i);
+                    if (!node.isWritable()) {
+                        continue;
+                    }
+                    if (node.isGesture()) {
+                        if (!GestureGate.writeGesture(node, node.isEnabled(context))) {
+                            Log.w(TAG, "Failed to restore saved value of " + node.getKey());
                         }
-                    } else if (!FileUtils.writeLine(node, value ? "1" : "0")) {
-                        Log.w(TAG, "Write to node " + node +
-                                " failed while restoring saved preference values");
+                    } else if (!node.write(node.getString(context))) {
+                        Log.w(TAG, "Failed to restore saved value of " + node.getKey());
                     }
                 }
+                GestureService.update(context);
+                GestureRegistry.restoreGestureActions(context);
             }
 
             // Disable button settings if needed
@@ -89,33 +96,68 @@ public class Startup extends BroadcastReceiver {
             }
         }
 
-        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
-        boolean enabled = sharedPrefs.getBoolean(Constants.KEY_SRGB_SWITCH, false);
-        restore(SRGBModeSwitch.getFile(), enabled);
+        SettingsStore settings = SettingsStore.get(context);
+        boolean enabled;
 
-        enabled = sharedPrefs.getBoolean(Constants.KEY_DCI_SWITCH, false);
-        restore(DCIModeSwitch.getFile(), enabled);
+        // A scheduled mode wins over the saved one while its window is active
+        int scheduledMode = NightModeScheduler.getScheduledMode(context,
+                System.currentTimeMillis());
+        if (scheduledMode >= 0) {
+            DeviceState.writePanelMode(scheduledMode);
+        } else {
+            enabled = settings.getBoolean(Constants.KEY_SRGB_SWITCH, false);
+            restore(SRGBModeSwitch.getFile(), enabled);
 
-        enabled = sharedPrefs.getBoolean(Constants.KEY_ONEPLUS_SWITCH, false);
-        restore(OneplusModeSwitch.getFile(), enabled);
+            enabled = settings.getBoolean(Constants.KEY_DCI_SWITCH, false);
+            restore(DCIModeSwitch.getFile(), enabled);
 
-        enabled = sharedPrefs.getBoolean(Constants.KEY_NIGHT_SWITCH, false);
-        restore(NightModeSwitch.getFile(), enabled);
+            enabled = settings.getBoolean(Constants.KEY_ONEPLUS_SWITCH, false);
+            restore(OneplusModeSwitch.getFile(), enabled);
 
-        enabled = sharedPrefs.getBoolean(Constants.KEY_HBM_SWITCH, false);
+            enabled = settings.getBoolean(Constants.KEY_NIGHT_SWITCH, false);
+            restore(NightModeSwitch.getFile(), enabled);
+        }
+        NightModeScheduler.scheduleNextChange(context);
+
+        enabled = settings.getBoolean(Constants.KEY_HBM_SWITCH, false);
+        if (enabled && HBMModeSwitch.getFile() != null) {
+            long remaining = DeviceState.getHbmAutoOffRemaining(settings);
+            if (remaining == 0) {
+                // Expired while the device was off
+                settings.edit()
+                        .putBoolean(Constants.KEY_HBM_SWITCH, false)
+                        .remove(Constants.KEY_HBM_AUTO_OFF_DEADLINE)
+                        .apply();
+            } else {
+                HBMModeSwitch.setEnabled(true);
+                if (remaining > 0) {
+                    DeviceState.get(context).resumeHbmAutoOff(remaining);
+                }
+            }
+        }
+
+        enabled = settings.getBoolean(Constants.KEY_AUTO_HBM_SWITCH, false);
         if (enabled) {
-            restore(HBMModeSwitch.getFile(), "2");
+            AutoHBMService.update(context, true);
+        }
+
+        if (context.getResources().getBoolean(R.bool.config_thermalGovernorEnabled)) {
+            ThermalService.update(context, true);
+        }
+
+        if (context.getResources().getBoolean(R.bool.config_powerPolicyEnabled)) {
+            PowerPolicyService.update(context, true);
         }
     }
 
     static boolean hasTouchscreenGestures () {
-        return new File(Constants.TOUCHSCREEN_CAMERA_NODE).exists() &&
-                new File(Constants.TOUCHSCREEN_DOUBLE_SWIPE_NODE).exists() &&
-                new File(Constants.TOUCHSCREEN_FLASHLIGHT_NODE).exists();
+        return FileUtils.fileExists(Constants.TOUCHSCREEN_CAMERA_NODE) &&
+                FileUtils.fileExists(Constants.TOUCHSCREEN_DOUBLE_SWIPE_NODE) &&
+                FileUtils.fileExists(Constants.TOUCHSCREEN_FLASHLIGHT_NODE);
     }
 
     private boolean hasButtonProcs () {
-        return new File(Constants.NOTIF_SLIDER_NODE).exists();
+        return FileUtils.fileExists(Constants.NOTIF_SLIDER_NODE);
     }
 
     private void disableComponent(Context context, String component) {
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+/**
+ * Computes sunrise and sunset locally from a position, so scheduling does
+ * not need a location fix or a network lookup.
+ */
+public final class SunCalculator {
+
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    // January 1, 2000 at 12:00 UTC
+    private static final long UTC_2000 = 946728000000L;
+
+    private static final double J0 = 0.0009;
+    private static final double C1 = 0.0334196;
+    private static final double C2 = 0.000349066;
+    private static final double C3 = 0.000005236;
+    private static final double OBLIQUITY = 0.40927971;
+
+    // Sun's upper limb on the horizon, including refraction (-0.833 degrees)
+    private static final double SUNRISE_ALTITUDE = Math.toRadians(-0.833);
+
+    /** Sunrise in UTC millis, or -1 if the sun does not rise or set that day. */
+    public long sunrise;
+
+    /** Sunset in UTC millis, or -1 if the sun does not rise or set that day. */
+    public long sunset;
+
+    /** Whether it is night at the time passed to {@link #calculate}. */
+    public boolean isNight;
+
+    public void calculate(long time, double latitude, double longitude) {
+        final double daysSince2000 = (double) (time - UTC_2000) / DAY_IN_MILLIS;
+
+        final double meanAnomaly = 6.240059968 + daysSince2000 * 0.01720197;
+        final double trueAnomaly = meanAnomaly + C1 * Math.sin(meanAnomaly)
+                + C2 * Math.sin(2 * meanAnomaly) + C3 * Math.sin(3 * meanAnomaly);
+        final double solarLng = trueAnomaly + 1.796593063 + Math.PI;
+
+        final double arcLongitude = -longitude / 360;
+        final double n = Math.round(daysSince2000 - J0 - arcLongitude);
+        final double solarTransit = n + J0 + arcLongitude
+                + 0.0053 * Math.sin(meanAnomaly) - 0.0069 * Math.sin(2 * solarLng);
+
+        final double solarDec = Math.asin(Math.sin(solarLng) * Math.sin(OBLIQUITY));
+        final double latRad = Math.toRadians(latitude);
+        final double cosHourAngle = (Math.sin(SUNRISE_ALTITUDE)
+                - Math.sin(latRad) * Math.sin(solarDec))
+                / (Math.cos(latRad) * Math.cos(solarDec));
+
+        if (cosHourAngle >= 1) {
+            // Polar night
+            isNight = true;
+            sunrise = sunset = -1;
+            return;
+        } else if (cosHourAngle <= -1) {
+            // Midnight sun
+            isNight = false;
+            sunrise = sunset = -1;
+            return;
+        }
+
+        final double hourAngle = Math.acos(cosHourAngle) / (2 * Math.PI);
+        sunset = Math.round((solarTransit + hourAngle) * DAY_IN_MILLIS) + UTC_2000;
+        sunrise = Math.round((solarTransit - hourAngle) * DAY_IN_MILLIS) + UTC_2000;
+        isNight = sunrise > time || sunset < time;
+    }
+}
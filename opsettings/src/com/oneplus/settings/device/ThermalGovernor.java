@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import com.oneplus.settings.device.utils.NodeBackend;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Steps down HBM and the Spectrum profile when the device runs hot.
+ *
+ * The zones are read straight from the given node backend, so they neither
+ * show up in the flight recorder nor need an Android runtime. Pointed at a
+ * {@link com.oneplus.settings.device.utils.FileNodeBackend} on a fake sysfs
+ * tree, the governor runs on any host.
+ */
+public class ThermalGovernor {
+
+    public interface Callback {
+        void setHbmThrottled(boolean throttled);
+        void setSpectrumThrottled(boolean throttled);
+    }
+
+    public static final String DEFAULT_THERMAL_ROOT = "/sys/class/thermal";
+
+    private static final String ZONE_PREFIX = "thermal_zone";
+
+    // Sensors report garbage outside of this range (millidegrees)
+    private static final int MIN_VALID_TEMP = -40000;
+    private static final int MAX_VALID_TEMP = 200000;
+
+    // A change smaller than this between polls counts as stable (millidegrees)
+    private static final int STABLE_DELTA = 1000;
+
+    // Poll fast when this close to a throttle threshold (millidegrees)
+    private static final int THRESHOLD_MARGIN = 3000;
+
+    private final Callback mCallback;
+    private final NodeBackend mBackend;
+    private final String[] mZoneTemps;
+
+    private final int mHbmThrottleTemp;
+    private final int mHbmRestoreTemp;
+    private final int mSpectrumThrottleTemp;
+    private final int mSpectrumRestoreTemp;
+    private final long mMinInterval;
+    private final long mMaxInterval;
+
+    private boolean mReported;
+    private boolean mHbmThrottled;
+    private boolean mSpectrumThrottled;
+    private int mLastTemp = Integer.MIN_VALUE;
+    private long mInterval;
+
+    /**
+     * @param backend       backend the zones are read through; zones are
+     *                      found by listing the root, so it must keep its
+     *                      nodes in files
+     * @param root          node path of the directory holding the
+     *                      thermal_zone* entries
+     * @param zoneTypes     zone types to watch, or empty to watch all zones
+     * @param temps         HBM throttle/restore and Spectrum throttle/restore
+     *                      temperatures, in degrees Celsius
+     */
+    public ThermalGovernor(NodeBackend backend, String root, String[] zoneTypes, int[] temps,
+            long minInterval, long maxInterval, Callback callback) {
+        mCallback = callback;
+        mBackend = backend;
+        mZoneTemps = findZones(root, zoneTypes);
+        mHbmThrottleTemp = temps[0] * 1000;
+        mHbmRestoreTemp = temps[1] * 1000;
+        mSpectrumThrottleTemp = temps[2] * 1000;
+        mSpectrumRestoreTemp = temps[3] * 1000;
+        mMinInterval = minInterval;
+        mMaxInterval = maxInterval;
+        mInterval = minInterval;
+    }
+
+    private String[] findZones(String root, String[] zoneTypes) {
+        List<String> zones = new ArrayList<>();
+        File dir = mBackend.getFile(root);
+        String[] entries = dir != null ? dir.list() : null;
+        if (entries == null) {
+            return new String[0];
+        }
+        for (String entry : entries) {
+            if (!entry.startsWith(ZONE_PREFIX)) {
+                continue;
+            }
+            String zone = root + "/" + entry;
+            String temp = zone + "/temp";
+            if (!mBackend.canRead(temp)) {
+                continue;
+            }
+            if (zoneTypes.length > 0 && !contains(zoneTypes, readLine(zone + "/type"))) {
+                continue;
+            }
+            zones.add(temp);
+        }
+        return zones.toArray(new String[zones.size()]);
+    }
+
+    private String readLine(String node) {
+        try {
+            return mBackend.readLine(node);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static boolean contains(String[] array, String value) {
+        for (String s : array) {
+            if (s.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean hasZones() {
+        return mZoneTemps.length > 0;
+    }
+
+    /**
+     * Returns the hottest valid zone reading in millidegrees, or
+     * Integer.MIN_VALUE if no zone could be read.
+     */
+    public int readMaxTemp() {
+        int max = Integer.MIN_VALUE;
+        for (String zone : mZoneTemps) {
+            String line = readLine(zone);
+            if (line == null) {
+                continue;
+            }
+            int temp;
+            try {
+                temp = Integer.parseInt(line.trim());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            // Some zones report whole degrees instead of millidegrees
+            if (temp > -1000 && temp < 1000) {
+                temp *= 1000;
+            }
+            if (temp < MIN_VALID_TEMP || temp > MAX_VALID_TEMP) {
+                continue;
+            }
+            max = Math.max(max, temp);
+        }
+        return max;
+    }
+
+    /**
+     * Reads the zones, updates the throttle state and returns the delay
+     * in milliseconds until the next poll.
+     *
+     * The first valid reading reports both states even if they did not
+     * change, so throttling left behind by an earlier process is lifted.
+     */
+    public long poll() {
+        int temp = readMaxTemp();
+        if (temp == Integer.MIN_VALUE) {
+            mInterval = mMaxInterval;
+            return mInterval;
+        }
+
+        final boolean hbm = mHbmThrottled
+                ? temp > mHbmRestoreTemp : temp >= mHbmThrottleTemp;
+        if (hbm != mHbmThrottled || !mReported) {
+            mHbmThrottled = hbm;
+            mCallback.setHbmThrottled(hbm);
+        }
+
+        final boolean spectrum = mSpectrumThrottled
+                ? temp > mSpectrumRestoreTemp : temp >= mSpectrumThrottleTemp;
+        if (spectrum != mSpectrumThrottled || !mReported) {
+            mSpectrumThrottled = spectrum;
+            mCallback.setSpectrumThrottled(spectrum);
+        }
+        mReported = true;
+
+        // Back off while temperatures are stable and far from any threshold
+        boolean stable = mLastTemp != Integer.MIN_VALUE
+                && Math.abs(temp - mLastTemp) < STABLE_DELTA;
+        boolean nearThreshold = mHbmThrottled || mSpectrumThrottled
+                || temp >= Math.min(mHbmThrottleTemp, mSpectrumThrottleTemp)
+                        - THRESHOLD_MARGIN;
+        if (stable && !nearThreshold) {
+            mInterval = Math.min(mInterval * 2, mMaxInterval);
+        } else {
+            mInterval = mMinInterval;
+        }
+        mLastTemp = temp;
+        return mInterval;
+    }
+
+    public boolean isHbmThrottled() {
+        return mHbmThrottled;
+    }
+
+    public boolean isSpectrumThrottled() {
+        return mSpectrumThrottled;
+    }
+
+    public int getLastTemp() {
+        return mLastTemp;
+    }
+
+    public long getInterval() {
+        return mInterval;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Process;
+import android.os.UserHandle;
+import android.util.Log;
+
+import com.oneplus.settings.device.utils.Nodes;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+public class ThermalService extends Service implements ThermalGovernor.Callback {
+
+    private static final String TAG = "ThermalService";
+    private static final boolean DEBUG = false;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private ThermalGovernor mGovernor;
+
+    private final Runnable mPollRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // Handler time does not advance in suspend, so this never
+            // wakes the device up on its own.
+            long delay = mGovernor.poll();
+            if (DEBUG) Log.d(TAG, "temp=" + mGovernor.getLastTemp() + " next=" + delay);
+            mHandler.postDelayed(this, delay);
+        }
+    };
+
+    public static void update(Context context, boolean enabled) {
+        Intent intent = new Intent(context, ThermalService.class);
+        if (enabled) {
+            context.startServiceAsUser(intent, UserHandle.CURRENT);
+        } else {
+            context.stopServiceAsUser(intent, UserHandle.CURRENT);
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        FeatureCounters.init(this);
+        Resources res = getResources();
+        int[] temps = new int[] {
+            res.getInteger(R.integer.config_thermalHbmThrottleTemp),
+            res.getInteger(R.integer.config_thermalHbmRestoreTemp),
+            res.getInteger(R.integer.config_thermalSpectrumThrottleTemp),
+            res.getInteger(R.integer.config_thermalSpectrumRestoreTemp)
+        };
+
+        mGovernor = new ThermalGovernor(Nodes.getBackend(), ThermalGovernor.DEFAULT_THERMAL_ROOT,
+                res.getStringArray(R.array.config_thermalZoneTypes), temps,
+                res.getInteger(R.integer.config_thermalPollMinIntervalMs),
+                res.getInteger(R.integer.config_thermalPollMaxIntervalMs), this);
+        if (!mGovernor.hasZones()) {
+            Log.w(TAG, "No readable thermal zones, stopping");
+            stopSelf();
+            return;
+        }
+
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.post(mPollRunnable);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mThread != null) {
+            mHandler.removeCallbacks(mPollRunnable);
+            if (mGovernor.isHbmThrottled()) {
+                setHbmThrottled(false);
+            }
+            if (mGovernor.isSpectrumThrottled()) {
+                setSpectrumThrottled(false);
+            }
+            mThread.quitSafely();
+        }
+        SettingsStore.get(this).flush();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public void setHbmThrottled(boolean throttled) {
+        Log.i(TAG, (throttled ? "Throttling" : "Restoring") + " HBM");
+        HBMModeSwitch.setThrottled(this, HBMModeSwitch.THROTTLE_THERMAL, throttled);
+    }
+
+    @Override
+    public void setSpectrumThrottled(boolean throttled) {
+        SpectrumProfile.setThrottled(this, SpectrumProfile.THROTTLE_THERMAL, throttled);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("ThermalService:");
+        if (mGovernor == null) {
+            return;
+        }
+        pw.println("  lastTemp=" + mGovernor.getLastTemp());
+        pw.println("  interval=" + mGovernor.getInterval());
+        pw.println("  hbmThrottled=" + mGovernor.isHbmThrottled());
+        pw.println("  spectrumThrottled=" + mGovernor.isSpectrumThrottled());
+        pw.println("  spectrumUserProfile=" + SpectrumProfile.getUserProfile(this));
+    }
+}
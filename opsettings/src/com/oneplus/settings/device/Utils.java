@@ -17,15 +17,35 @@
 */
 package com.oneplus.settings.device;
 
-import java.io.File;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.util.Log;
+
+import com.oneplus.settings.device.utils.Nodes;
+
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.BufferedReader;
-import java.io.FileReader;
 
 public class Utils {
 
+    private static final String TAG = "Utils";
+
+    private static final String PACKAGE_NAME = "com.oneplus.settings.device";
+
+    /**
+     * Returns the resources of this package, also from the key handler
+     * running in the system server, or null if they cannot be loaded.
+     */
+    public static Resources getPackageResources(Context context) {
+        try {
+            return context.createPackageContext(PACKAGE_NAME, 0).getResources();
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.e(TAG, "Unable to load package resources", e);
+            return null;
+        }
+    }
+
     /**
      * Write a string value to the specified file.
      * @param filename      The filename
@@ -35,16 +55,26 @@ public class Utils {
         if (filename == null) {
             return;
         }
+        final long start = System.nanoTime();
+        final boolean tracing = DeviceTrace.isEnabled();
+        if (tracing) {
+            DeviceTrace.begin("write " + filename);
+        }
+        boolean success = false;
         try {
-            FileOutputStream fos = new FileOutputStream(new File(filename));
-            fos.write(value.getBytes());
-            fos.flush();
-            fos.close();
+            Nodes.getBackend().write(filename, value);
+            success = true;
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            if (tracing) {
+                DeviceTrace.end();
+            }
         }
+        FlightRecorder.recordNode(FlightRecorder.EVENT_NODE_WRITE, filename, value, success,
+                start);
     }
 
     /**
@@ -56,32 +86,33 @@ public class Utils {
         if (filename == null) {
             return false;
         }
-        return new File(filename).exists();
+        return Nodes.getBackend().exists(filename);
     }
 
     public static boolean fileWritable(String filename) {
-        return fileExists(filename) && new File(filename).canWrite();
+        return filename != null && Nodes.getBackend().canWrite(filename);
     }
 
     public static String readLine(String filename) {
         if (filename == null) {
             return null;
         }
-        BufferedReader br = null;
+        final long start = System.nanoTime();
+        final boolean tracing = DeviceTrace.isEnabled();
+        if (tracing) {
+            DeviceTrace.begin("read " + filename);
+        }
         String line = null;
         try {
-            br = new BufferedReader(new FileReader(filename), 1024);
-            line = br.readLine();
+            line = Nodes.getBackend().readLine(filename);
         } catch (IOException e) {
             return null;
         } finally {
-            if (br != null) {
-                try {
-                    br.close();
-                } catch (IOException e) {
-                    // ignore
-                }
+            if (tracing) {
+                DeviceTrace.end();
             }
+            FlightRecorder.recordNode(FlightRecorder.EVENT_NODE_READ, filename, null,
+                    line != null, start);
         }
         return line;
     }
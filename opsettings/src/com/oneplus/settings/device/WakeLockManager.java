@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands out one partial wakelock per feature. Every acquire has a deadline
+ * after which the lock is dropped even if the feature never releases it.
+ *
+ * Acquires, held time, time held with the screen off and timeouts of each
+ * feature go to its set of {@link FeatureCounters}, which the app's dump
+ * exports.
+ */
+public final class WakeLockManager {
+
+    private static final String TAG = "WakeLockManager";
+
+    // Lets the handler deadline fire before the PowerManager one
+    private static final long TIMEOUT_GRACE = 1000;
+
+    private static WakeLockManager sInstance;
+
+    private final PowerManager mPowerManager;
+    private final Handler mHandler;
+    private final List<Scope> mScopes = new ArrayList<>();
+    private boolean mScreenOff;
+
+    public static synchronized WakeLockManager get(Context context) {
+        if (sInstance == null) {
+            sInstance = new WakeLockManager(context);
+        }
+        return sInstance;
+    }
+
+    private WakeLockManager(Context context) {
+        mPowerManager = context.getSystemService(PowerManager.class);
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * @param counters  first of the feature's FeatureCounters.WAKELOCK_*
+     *                  counter set
+     */
+    public synchronized Scope newScope(String feature, int counters) {
+        Scope scope = new Scope(feature, counters);
+        mScopes.add(scope);
+        return scope;
+    }
+
+    public synchronized void onScreenOff() {
+        if (mScreenOff) {
+            return;
+        }
+        mScreenOff = true;
+        for (Scope scope : mScopes) {
+            scope.mScreenOffHeldTime = scope.getHeldTime();
+        }
+    }
+
+    /**
+     * Counts and logs how long each wakelock was held since the screen
+     * went off.
+     */
+    public synchronized void onScreenOn() {
+        if (!mScreenOff) {
+            return;
+        }
+        mScreenOff = false;
+        for (Scope scope : mScopes) {
+            long held = scope.getHeldTime() - scope.mScreenOffHeldTime;
+            if (held > 0) {
+                FeatureCounters.add(scope.mCounters
+                        + FeatureCounters.WAKELOCK_SCREEN_OFF_TIME, held);
+                Log.i(TAG, scope.mFeature + " held " + held + "ms while the screen was off");
+            }
+        }
+    }
+
+    /**
+     * Returns whether any wakelock of any feature is held, e.g. to find
+     * leaks.
+     */
+    synchronized boolean isAnyHeld() {
+        for (Scope scope : mScopes) {
+            if (scope.isHeld()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public final class Scope {
+
+        private final String mFeature;
+        private final int mCounters;
+        private final PowerManager.WakeLock mWakeLock;
+
+        private long mAcquireTime;
+        private long mDeadline;
+        private long mHeldTime;
+        private long mScreenOffHeldTime;
+
+        private final Runnable mTimeoutRunnable = new Runnable() {
+            @Override
+            public void run() {
+                onTimeout();
+            }
+        };
+
+        private Scope(String feature, int counters) {
+            mFeature = feature;
+            mCounters = counters;
+            mWakeLock = mPowerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, feature);
+            mWakeLock.setReferenceCounted(false);
+        }
+
+        /**
+         * Acquires the wakelock until {@link #release} is called, but for at
+         * most the given time. Acquiring a held lock only moves the deadline
+         * further out.
+         */
+        public void acquire(long timeout) {
+            synchronized (WakeLockManager.this) {
+                final long now = SystemClock.uptimeMillis();
+                if (!mWakeLock.isHeld()) {
+                    mAcquireTime = SystemClock.elapsedRealtime();
+                    FeatureCounters.increment(mCounters + FeatureCounters.WAKELOCK_ACQUIRES);
+                    FeatureCounters.startTimer(mCounters + FeatureCounters.WAKELOCK_HELD_TIME);
+                } else if (now + timeout <= mDeadline) {
+                    return;
+                }
+                mDeadline = now + timeout;
+                // The PowerManager timeout only backs up the handler one
+                mWakeLock.acquire(timeout + TIMEOUT_GRACE);
+                mHandler.removeCallbacks(mTimeoutRunnable);
+                mHandler.postAtTime(mTimeoutRunnable, mDeadline);
+            }
+        }
+
+        public void release() {
+            synchronized (WakeLockManager.this) {
+                if (!mWakeLock.isHeld()) {
+                    return;
+                }
+                mHandler.removeCallbacks(mTimeoutRunnable);
+                mHeldTime += SystemClock.elapsedRealtime() - mAcquireTime;
+                FeatureCounters.stopTimer(mCounters + FeatureCounters.WAKELOCK_HELD_TIME);
+                mWakeLock.release();
+            }
+        }
+
+        public boolean isHeld() {
+            return mWakeLock.isHeld();
+        }
+
+        private void onTimeout() {
+            synchronized (WakeLockManager.this) {
+                if (mWakeLock.isHeld()) {
+                    FeatureCounters.increment(mCounters + FeatureCounters.WAKELOCK_TIMEOUTS);
+                }
+            }
+            release();
+        }
+
+        public long getHeldTime() {
+            synchronized (WakeLockManager.this) {
+                long held = mHeldTime;
+                if (mWakeLock.isHeld()) {
+                    held += SystemClock.elapsedRealtime() - mAcquireTime;
+                }
+                return held;
+            }
+        }
+
+    }
+}
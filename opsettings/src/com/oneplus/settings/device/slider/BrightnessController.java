@@ -17,21 +17,20 @@
 package com.oneplus.settings.device.slider;
 
 import android.content.Context;
-import android.os.UserHandle;
 import android.provider.Settings;
-import android.util.Log;
 
+import com.oneplus.settings.device.SliderCatalog;
 import com.oneplus.settings.device.SliderControllerBase;
 
 public final class BrightnessController extends SliderControllerBase {
 
-    public static final int ID = 3;
+    public static final int ID = SliderCatalog.USAGE_BRIGHTNESS;
 
     private static final String TAG = "BrightnessController";
 
-    private static final int BRIGHTNESS_AUTO = 30;
-    private static final int BRIGHTNESS_BRIGHTEST = 31;
-    private static final int BRIGHTNESS_DARKEST = 32;
+    private static final int BRIGHTNESS_AUTO = SliderCatalog.BRIGHTNESS_AUTO;
+    private static final int BRIGHTNESS_BRIGHTEST = SliderCatalog.BRIGHTNESS_BRIGHTEST;
+    private static final int BRIGHTNESS_DARKEST = SliderCatalog.BRIGHTNESS_DARKEST;
 
     private static final int DARKEST = 0;
     private static final int BRIGHTEST = 255;
@@ -42,7 +41,6 @@ public final class BrightnessController extends SliderControllerBase {
 
     @Override
     protected boolean processAction(int action) {
-        Log.d(TAG, "slider action: " + action);
         switch (action) {
             case BRIGHTNESS_AUTO:
                 return writeSettings(Settings.System.SCREEN_BRIGHTNESS_MODE,
@@ -67,7 +65,6 @@ public final class BrightnessController extends SliderControllerBase {
     }
 
     private boolean writeSettings(String key, int value) {
-        return Settings.System.putIntForUser(mContext.getContentResolver(),
-                    key, value, UserHandle.USER_CURRENT);
+        return mServices.putSystemInt(key, value);
     }
 }
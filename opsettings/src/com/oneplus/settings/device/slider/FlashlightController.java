@@ -21,38 +21,52 @@ import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraManager;
 import android.os.Handler;
-import android.os.PowerManager;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.oneplus.settings.device.AutoOffScheduler;
+import com.oneplus.settings.device.FeatureCounters;
+import com.oneplus.settings.device.SliderCatalog;
 import com.oneplus.settings.device.SliderControllerBase;
+import com.oneplus.settings.device.WakeLockManager;
 
 public final class FlashlightController extends SliderControllerBase {
 
-    public static final int ID = 2;
+    public static final int ID = SliderCatalog.USAGE_FLASHLIGHT;
 
     private static final String TAG = "FlashlightController";
 
-    private static final int FLASHLIGHT_OFF = 20;
-    private static final int FLASHLIGHT_ON = 21;
-    private static final int FLASHLIGHT_BLINK = 22;
+    private static final int FLASHLIGHT_OFF = SliderCatalog.FLASHLIGHT_OFF;
+    private static final int FLASHLIGHT_ON = SliderCatalog.FLASHLIGHT_ON;
+    private static final int FLASHLIGHT_BLINK = SliderCatalog.FLASHLIGHT_BLINK;
 
     private static final long BLINK_INTERVAL = 250L;
 
+    // Blinking keeps the device awake, so it stops on its own at some point
+    private static final long MAX_BLINK_DURATION = 30 * 60 * 1000L;
+
     private final CameraManager mCameraManager;
 
     private String mCameraId;
     private boolean mTorchEnabled = false;
 
-    private PowerManager.WakeLock mWakeLock;
+    private final WakeLockManager.Scope mWakeLock;
+    private boolean mBlinking;
+    private long mBlinkStartTime;
+    private long mMaxBlinkDuration = MAX_BLINK_DURATION;
 
     private final Handler mBlinkHandler = new Handler();
     private final Runnable mBlinkRunnble = new Runnable() {
         @Override
         public void run() {
-            if (setTorchMode(!mTorchEnabled)) {
+            if (SystemClock.uptimeMillis() - mBlinkStartTime >= mMaxBlinkDuration) {
+                Log.i(TAG, "Blinking for too long, stopping");
+                setTorchMode(false);
+                stopBlinking();
+            } else if (setTorchMode(!mTorchEnabled)) {
                 mBlinkHandler.postDelayed(this, BLINK_INTERVAL);
             } else {
-                mWakeLock.release();
+                stopBlinking();
             }
         }
     };
@@ -60,35 +74,41 @@ public final class FlashlightController extends SliderControllerBase {
     public FlashlightController(Context context) {
         super(context);
         mCameraManager = context.getSystemService(CameraManager.class);
-        PowerManager pm = context.getSystemService(PowerManager.class);
-        mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+        mWakeLock = WakeLockManager.get(context).newScope(TAG,
+                FeatureCounters.WAKELOCK_BLINK);
     }
 
     @Override
     protected boolean processAction(int action) {
-        Log.d(TAG, "slider action: " + action);
         boolean succeed;
         switch (action) {
             case FLASHLIGHT_OFF:
                 succeed = setTorchMode(false);
                 mBlinkHandler.removeCallbacksAndMessages(null);
-                if (mWakeLock.isHeld()) {
-                    mWakeLock.release();
-                }
+                stopBlinking();
                 return succeed;
             case FLASHLIGHT_ON:
-                mCameraId = getCameraId();
+                updateCameraId();
                 succeed = setTorchMode(true);
                 mBlinkHandler.removeCallbacksAndMessages(null);
-                if (mWakeLock.isHeld()) {
-                    mWakeLock.release();
+                stopBlinking();
+                if (succeed) {
+                    AutoOffScheduler.get(mContext).start(AutoOffScheduler.FEATURE_TORCH);
                 }
                 return succeed;
             case FLASHLIGHT_BLINK:
+                if (mBlinking) {
+                    // Keep the running loop and its deadline
+                    return true;
+                }
                 mBlinkHandler.removeCallbacksAndMessages(null);
-                mCameraId = getCameraId();
+                updateCameraId();
                 if (setTorchMode(true)) {
-                    mWakeLock.acquire();
+                    mBlinking = true;
+                    mBlinkStartTime = SystemClock.uptimeMillis();
+                    FeatureCounters.startTimer(FeatureCounters.BLINK_TIME);
+                    // The deadline only matters if the blink loop dies
+                    mWakeLock.acquire(mMaxBlinkDuration + 2 * BLINK_INTERVAL);
                     mBlinkHandler.postDelayed(mBlinkRunnble, BLINK_INTERVAL);
                     return true;
                 } else {
@@ -99,13 +119,35 @@ public final class FlashlightController extends SliderControllerBase {
         }
     }
 
+    public boolean isBlinking() {
+        return mBlinking;
+    }
+
+    /**
+     * Caps how long blinking lasts, or lifts the cap with 0. A running
+     * blink stops at the next toggle if it already ran longer.
+     */
+    public void setMaxBlinkDuration(final long duration) {
+        mBlinkHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mMaxBlinkDuration = duration > 0
+                        ? Math.min(duration, MAX_BLINK_DURATION) : MAX_BLINK_DURATION;
+            }
+        });
+    }
+
     @Override
     public void reset() {
         setTorchMode(false);
         mBlinkHandler.removeCallbacksAndMessages(null);
-        if (mWakeLock.isHeld()) {
-            mWakeLock.release();
-        }
+        stopBlinking();
+    }
+
+    private void stopBlinking() {
+        mBlinking = false;
+        mWakeLock.release();
+        FeatureCounters.stopTimer(FeatureCounters.BLINK_TIME);
     }
 
     private boolean setTorchMode(boolean enabled) {
@@ -115,7 +157,7 @@ public final class FlashlightController extends SliderControllerBase {
         }
 
         try {
-            mCameraManager.setTorchMode(mCameraId, enabled);
+            mServices.setTorchMode(mCameraId, enabled);
             mTorchEnabled = enabled;
             return true;
         } catch (CameraAccessException e) {
@@ -124,6 +166,13 @@ public final class FlashlightController extends SliderControllerBase {
         }
     }
 
+    private void updateCameraId() {
+        // The camera list does not change, only look it up once
+        if (mCameraId == null) {
+            mCameraId = getCameraId();
+        }
+    }
+
     private String getCameraId() {
         try {
             for (final String cameraId : mCameraManager.getCameraIdList()) {
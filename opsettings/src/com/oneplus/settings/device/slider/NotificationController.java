@@ -16,25 +16,24 @@
 
 package com.oneplus.settings.device.slider;
 
-import android.app.NotificationManager;
 import android.content.Context;
 import android.media.AudioManager;
 import android.os.Handler;
 import android.provider.Settings;
-import android.util.Log;
 import android.util.SparseIntArray;
 
+import com.oneplus.settings.device.SliderCatalog;
 import com.oneplus.settings.device.SliderControllerBase;
 
 public final class NotificationController extends SliderControllerBase {
 
-    public static final int ID = 1;
+    public static final int ID = SliderCatalog.USAGE_NOTIFICATION;
 
     private static final String TAG = "NotificationController";
 
-    private static final int NOTIFICATION_TOTAL_SILENCE = 10;
-    private static final int NOTIFICATION_PRIORITY_ONLY = 12;
-    private static final int NOTIFICATION_ALL = 13;
+    private static final int NOTIFICATION_TOTAL_SILENCE = SliderCatalog.NOTIFICATION_TOTAL_SILENCE;
+    private static final int NOTIFICATION_PRIORITY_ONLY = SliderCatalog.NOTIFICATION_PRIORITY_ONLY;
+    private static final int NOTIFICATION_ALL = SliderCatalog.NOTIFICATION_ALL;
     private static final int CHANGE_DELAY = 100;
 
     private static final SparseIntArray MODES = new SparseIntArray();
@@ -47,29 +46,24 @@ public final class NotificationController extends SliderControllerBase {
                 Settings.Global.ZEN_MODE_OFF);
     }
 
-    private final NotificationManager mNotificationManager;
-    private final AudioManager mAudioManager;
     private Handler mHandler;
     private int mZenMode;
 
     public NotificationController(Context context) {
         super(context);
         mHandler = new Handler();
-        mNotificationManager = context.getSystemService(NotificationManager.class);
-        mAudioManager = context.getSystemService(AudioManager.class);
     }
 
     @Override
     protected boolean processAction(int action) {
-        Log.d(TAG, "slider action: " + action);
         if (MODES.indexOfKey(action) >= 0) {
             mZenMode = MODES.indexOfKey(action);
-            mAudioManager.setRingerModeInternal(AudioManager.RINGER_MODE_NORMAL);
+            mServices.setRingerModeInternal(AudioManager.RINGER_MODE_NORMAL);
             mHandler.postDelayed(new Runnable() {
                 @Override
                 public void run() {
                     if (mZenMode != MODES.indexOfKey(action)) return;
-                    mNotificationManager.setZenMode(MODES.get(action), null, TAG);
+                    mServices.setZenMode(MODES.get(action), TAG);
                 }
             }, CHANGE_DELAY);
             return true;
@@ -80,7 +74,7 @@ public final class NotificationController extends SliderControllerBase {
 
     @Override
     public void reset() {
-        mAudioManager.setRingerModeInternal(AudioManager.RINGER_MODE_NORMAL);
-        mNotificationManager.setZenMode(Settings.Global.ZEN_MODE_OFF, null, TAG);
+        mServices.setRingerModeInternal(AudioManager.RINGER_MODE_NORMAL);
+        mServices.setZenMode(Settings.Global.ZEN_MODE_OFF, TAG);
     }
 }
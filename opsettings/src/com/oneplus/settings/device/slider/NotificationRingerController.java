@@ -16,30 +16,27 @@
 
 package com.oneplus.settings.device.slider;
 
-import android.app.NotificationManager;
 import android.content.Context;
 import android.media.AudioManager;
 import android.os.Handler;
 import android.provider.Settings;
-import android.util.Log;
 
+import com.oneplus.settings.device.SliderCatalog;
 import com.oneplus.settings.device.SliderControllerBase;
 
 public final class NotificationRingerController extends SliderControllerBase {
 
-    public static final int ID = 6;
+    public static final int ID = SliderCatalog.USAGE_NOTIFICATION_RINGER;
 
     private static final String TAG = "NotificationRingerController";
 
-    private static final int NOTIFICATION_TOTAL_SILENCE = 60;
-    private static final int NOTIFICATION_PRIORITY_ONLY = 62;
-    private static final int NOTIFICATION_ALL = 63;
-    private static final int RINGER_VIBRATE = 64;
-    private static final int RINGER_SILENT = 65;
+    private static final int NOTIFICATION_TOTAL_SILENCE = SliderCatalog.NOTIFICATION_RINGER_TOTAL_SILENCE;
+    private static final int NOTIFICATION_PRIORITY_ONLY = SliderCatalog.NOTIFICATION_RINGER_PRIORITY_ONLY;
+    private static final int NOTIFICATION_ALL = SliderCatalog.NOTIFICATION_RINGER_ALL;
+    private static final int RINGER_VIBRATE = SliderCatalog.NOTIFICATION_RINGER_VIBRATE;
+    private static final int RINGER_SILENT = SliderCatalog.NOTIFICATION_RINGER_SILENT;
     private static final int CHANGE_DELAY = 0;
 
-    private final NotificationManager mNotificationManager;
-    private final AudioManager mAudioManager;
     private Handler mHandler;
     private int mRingMode;
     private int mZenMode;
@@ -47,67 +44,64 @@ public final class NotificationRingerController extends SliderControllerBase {
     public NotificationRingerController(Context context) {
         super(context);
         mHandler = new Handler();
-        mNotificationManager = context.getSystemService(NotificationManager.class);
-        mAudioManager = context.getSystemService(AudioManager.class);
     }
 
     @Override
     protected boolean processAction(int action) {
-        Log.d(TAG, "slider action: " + action);
 
         switch (action) {
             case RINGER_VIBRATE:
                 mRingMode = RINGER_VIBRATE;
-                mNotificationManager.setZenMode(Settings.Global.ZEN_MODE_OFF, null, TAG);
+                mServices.setZenMode(Settings.Global.ZEN_MODE_OFF, TAG);
                 mHandler.postDelayed(new Runnable() {
                     @Override
                     public void run() {
                         if (mRingMode != RINGER_VIBRATE) return;
-                        mAudioManager.setRingerModeInternal(AudioManager.RINGER_MODE_VIBRATE);
+                        mServices.setRingerModeInternal(AudioManager.RINGER_MODE_VIBRATE);
                     }
                 }, CHANGE_DELAY);
                 return true;
             case RINGER_SILENT:
                 mRingMode = RINGER_SILENT;
-                mNotificationManager.setZenMode(Settings.Global.ZEN_MODE_OFF, null, TAG);
+                mServices.setZenMode(Settings.Global.ZEN_MODE_OFF, TAG);
                 mHandler.postDelayed(new Runnable() {
                     @Override
                     public void run() {
                         if (mRingMode != RINGER_SILENT) return;
-                        mAudioManager.setRingerModeInternal(AudioManager.RINGER_MODE_SILENT);
+                        mServices.setRingerModeInternal(AudioManager.RINGER_MODE_SILENT);
                     }
                 }, CHANGE_DELAY);
                 return true;
             case NOTIFICATION_TOTAL_SILENCE:
                 mZenMode = NOTIFICATION_TOTAL_SILENCE;
-                mAudioManager.setRingerModeInternal(AudioManager.RINGER_MODE_SILENT);
+                mServices.setRingerModeInternal(AudioManager.RINGER_MODE_SILENT);
                 mHandler.postDelayed(new Runnable() {
                     @Override
                     public void run() {
                         if (mZenMode != NOTIFICATION_TOTAL_SILENCE) return;
-                        mNotificationManager.setZenMode(Settings.Global.ZEN_MODE_NO_INTERRUPTIONS, null, TAG);
+                        mServices.setZenMode(Settings.Global.ZEN_MODE_NO_INTERRUPTIONS, TAG);
                     }
                 }, CHANGE_DELAY);
                 return true;
             case NOTIFICATION_PRIORITY_ONLY:
                 mZenMode = NOTIFICATION_PRIORITY_ONLY;
-                mAudioManager.setRingerModeInternal(AudioManager.RINGER_MODE_NORMAL);
+                mServices.setRingerModeInternal(AudioManager.RINGER_MODE_NORMAL);
                 mHandler.postDelayed(new Runnable() {
                     @Override
                     public void run() {
                         if (mZenMode != NOTIFICATION_PRIORITY_ONLY) return;
-                        mNotificationManager.setZenMode(Settings.Global.ZEN_MODE_IMPORTANT_INTERRUPTIONS, null, TAG);
+                        mServices.setZenMode(Settings.Global.ZEN_MODE_IMPORTANT_INTERRUPTIONS, TAG);
                     }
                 }, CHANGE_DELAY);
                 return true;
             case NOTIFICATION_ALL:
                 mRingMode = NOTIFICATION_ALL;
-                mNotificationManager.setZenMode(Settings.Global.ZEN_MODE_OFF, null, TAG);
+                mServices.setZenMode(Settings.Global.ZEN_MODE_OFF, TAG);
                 mHandler.postDelayed(new Runnable() {
                     @Override
                     public void run() {
                         if (mRingMode != NOTIFICATION_ALL) return;
-                        mAudioManager.setRingerModeInternal(AudioManager.RINGER_MODE_NORMAL);
+                        mServices.setRingerModeInternal(AudioManager.RINGER_MODE_NORMAL);
                     }
                 }, CHANGE_DELAY);
                 return true;
@@ -118,7 +112,7 @@ public final class NotificationRingerController extends SliderControllerBase {
 
     @Override
     public void reset() {
-        mAudioManager.setRingerModeInternal(AudioManager.RINGER_MODE_NORMAL);
-        mNotificationManager.setZenMode(Settings.Global.ZEN_MODE_OFF, null, TAG);
+        mServices.setRingerModeInternal(AudioManager.RINGER_MODE_NORMAL);
+        mServices.setZenMode(Settings.Global.ZEN_MODE_OFF, TAG);
     }
 }
@@ -18,20 +18,20 @@ package com.oneplus.settings.device.slider;
 
 import android.content.Context;
 import android.media.AudioManager;
-import android.util.Log;
 import android.util.SparseIntArray;
 
+import com.oneplus.settings.device.SliderCatalog;
 import com.oneplus.settings.device.SliderControllerBase;
 
 public final class RingerController extends SliderControllerBase {
 
-    public static final int ID = 5;
+    public static final int ID = SliderCatalog.USAGE_RINGER;
 
     private static final String TAG = "RingerController";
 
-    private static final int RINGER_NORMAL = 50;
-    private static final int RINGER_VIBRATE = 51;
-    private static final int RINGER_SILENT = 52;
+    private static final int RINGER_NORMAL = SliderCatalog.RINGER_NORMAL;
+    private static final int RINGER_VIBRATE = SliderCatalog.RINGER_VIBRATE;
+    private static final int RINGER_SILENT = SliderCatalog.RINGER_SILENT;
 
     private static final SparseIntArray MODES = new SparseIntArray();
     static {
@@ -40,18 +40,15 @@ public final class RingerController extends SliderControllerBase {
         MODES.put(RINGER_SILENT, AudioManager.RINGER_MODE_SILENT);
     }
 
-    private final AudioManager mAudioManager;
 
     public RingerController(Context context) {
         super(context);
-        mAudioManager = context.getSystemService(AudioManager.class);
     }
 
     @Override
     protected boolean processAction(int action) {
-        Log.d(TAG, "slider action: " + action);
         if (MODES.indexOfKey(action) >= 0) {
-            mAudioManager.setRingerModeInternal(MODES.get(action));
+            mServices.setRingerModeInternal(MODES.get(action));
             return true;
         } else {
             return false;
@@ -60,6 +57,6 @@ public final class RingerController extends SliderControllerBase {
 
     @Override
     public void reset() {
-        mAudioManager.setRingerModeInternal(AudioManager.RINGER_MODE_NORMAL);
+        mServices.setRingerModeInternal(AudioManager.RINGER_MODE_NORMAL);
     }
 }
@@ -16,33 +16,69 @@
 
 package com.oneplus.settings.device.slider;
 
+import android.app.TaskStackListener;
 import android.content.Context;
-import android.os.RemoteException;
-import android.util.Log;
-import android.view.IWindowManager;
+import android.content.res.Resources;
+import android.os.Handler;
+import android.util.ArraySet;
 import android.view.Surface;
-import android.view.WindowManagerGlobal;
 
+import com.oneplus.settings.device.R;
+import com.oneplus.settings.device.SliderCatalog;
 import com.oneplus.settings.device.SliderControllerBase;
+import com.oneplus.settings.device.Utils;
+
+import java.util.Arrays;
 
 public final class RotationController extends SliderControllerBase {
 
-    public static final int ID = 4;
+    public static final int ID = SliderCatalog.USAGE_ROTATION;
+
+    private static final int ROTATION_AUTO = SliderCatalog.ROTATION_AUTO;
+    private static final int ROTATION_0 = SliderCatalog.ROTATION_0;
+    private static final int ROTATION_90 = SliderCatalog.ROTATION_90;
+    private static final int ROTATION_270 = SliderCatalog.ROTATION_270;
+    private static final int ROTATION_PER_APP = SliderCatalog.ROTATION_PER_APP;
 
-    private static final String TAG = "RotationController";
+    // Effective state applied in per-app mode
+    private static final int STATE_UNKNOWN = 0;
+    private static final int STATE_AUTO = 1;
+    private static final int STATE_LOCKED = 2;
 
-    private static final int ROTATION_AUTO = 40;
-    private static final int ROTATION_0 = 41;
-    private static final int ROTATION_90 = 42;
-    private static final int ROTATION_270 = 43;
+    private final Handler mHandler;
+    private ArraySet<String> mAutoRotateApps;
+    private boolean mTracking;
+    private int mState = STATE_UNKNOWN;
+    private String mTopPackage;
+
+    private final TaskStackListener mTaskStackListener = new TaskStackListener() {
+        @Override
+        public void onTaskStackChanged() {
+            // Called for every stack change, only look at the top task once
+            // the burst is over
+            mHandler.removeCallbacks(mUpdateRunnable);
+            mHandler.post(mUpdateRunnable);
+        }
+    };
+
+    private final Runnable mUpdateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            updateForegroundApp();
+        }
+    };
 
     public RotationController(Context context) {
         super(context);
+        mHandler = new Handler();
     }
 
     @Override
     protected boolean processAction(int action) {
-        Log.d(TAG, "slider action: " + action);
+        if (action == ROTATION_PER_APP) {
+            return startTracking();
+        }
+        stopTracking();
         switch (action) {
             case ROTATION_AUTO:
                 return setRotation(false, 0);
@@ -59,21 +95,64 @@ public final class RotationController extends SliderControllerBase {
 
     @Override
     public void reset() {
+        stopTracking();
         setRotation(false, 0);
     }
 
-    private boolean setRotation(boolean locked, int rotation) {
-        try {
-            IWindowManager wm = WindowManagerGlobal.getWindowManagerService();
-            if (locked) {
-                wm.freezeRotation(rotation);
-            } else {
-                wm.thawRotation();
-            }
+    private synchronized boolean startTracking() {
+        if (mTracking) {
             return true;
-        } catch (RemoteException exc) {
-            Log.w(TAG, "Unable to save auto-rotate setting");
+        }
+        if (mAutoRotateApps == null) {
+            mAutoRotateApps = loadAutoRotateApps();
+        }
+        if (!mServices.registerTaskStackListener(mTaskStackListener)) {
             return false;
         }
+        mTracking = true;
+        mState = STATE_UNKNOWN;
+        mTopPackage = null;
+        updateForegroundApp();
+        return true;
+    }
+
+    private synchronized void stopTracking() {
+        if (!mTracking) {
+            return;
+        }
+        mTracking = false;
+        mHandler.removeCallbacks(mUpdateRunnable);
+        mServices.unregisterTaskStackListener(mTaskStackListener);
+    }
+
+    private synchronized void updateForegroundApp() {
+        if (!mTracking) {
+            return;
+        }
+        String topPackage = mServices.getTopPackage();
+        if (topPackage == null || topPackage.equals(mTopPackage)) {
+            return;
+        }
+        mTopPackage = topPackage;
+        int state = mAutoRotateApps.contains(topPackage) ? STATE_AUTO : STATE_LOCKED;
+        if (state == mState) {
+            return;
+        }
+        if (setRotation(state == STATE_LOCKED, Surface.ROTATION_0)) {
+            mState = state;
+        }
+    }
+
+    private ArraySet<String> loadAutoRotateApps() {
+        Resources res = Utils.getPackageResources(mContext);
+        if (res == null) {
+            return new ArraySet<>();
+        }
+        return new ArraySet<>(Arrays.asList(
+                res.getStringArray(R.array.config_sliderAutoRotateApps)));
+    }
+
+    private boolean setRotation(boolean locked, int rotation) {
+        return mServices.setRotationLocked(locked, rotation);
     }
 }
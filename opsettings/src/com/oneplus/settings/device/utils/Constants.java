@@ -16,20 +16,17 @@
 
 package com.oneplus.settings.device.utils;
 
-import java.util.HashMap;
-import java.util.Map;
-
-import android.content.Context;
-import android.content.SharedPreferences;
-import android.support.v14.preference.SwitchPreference;
-import android.support.v7.preference.PreferenceManager;
-
 public class Constants {
 
     // Gestures
     public static final String TOUCHSCREEN_CAMERA_GESTURE_KEY = "touchscreen_gesture_camera";
     public static final String TOUCHSCREEN_MUSIC_GESTURE_KEY = "touchscreen_gesture_music";
     public static final String TOUCHSCREEN_FLASHLIGHT_GESTURE_KEY = "touchscreen_gesture_flashlight";
+    public static final String TOUCHSCREEN_DOUBLE_TAP_GESTURE_KEY = "touchscreen_gesture_double_tap";
+    public static final String TOUCHSCREEN_W_GESTURE_KEY = "touchscreen_gesture_w";
+    public static final String TOUCHSCREEN_M_GESTURE_KEY = "touchscreen_gesture_m";
+    public static final String TOUCHSCREEN_S_GESTURE_KEY = "touchscreen_gesture_s";
+    public static final String GESTURE_ACTIONS_CATEGORY_KEY = "gesture_actions";
 
     // Alert slider
     public static final String NOTIF_SLIDER_PANEL_KEY = "notification_slider";
@@ -44,25 +41,21 @@ public class Constants {
     public static final String TOUCHSCREEN_LEFT_ARROW = "/proc/touchpanel/left_arrow_enable";
     public static final String TOUCHSCREEN_RIGHT_ARROW = "/proc/touchpanel/right_arrow_enable";
     public static final String TOUCHSCREEN_FLASHLIGHT_NODE = "/proc/touchpanel/down_arrow_enable";
-
-    // Array of music-related gestures
-    public static final String[] TOUCHSCREEN_MUSIC_GESTURES_ARRAY = {TOUCHSCREEN_DOUBLE_SWIPE_NODE, TOUCHSCREEN_LEFT_ARROW, TOUCHSCREEN_RIGHT_ARROW};
+    public static final String TOUCHSCREEN_DOUBLE_TAP_NODE = "/proc/touchpanel/double_tap_enable";
+    public static final String TOUCHSCREEN_W_NODE = "/proc/touchpanel/letter_w_enable";
+    public static final String TOUCHSCREEN_M_NODE = "/proc/touchpanel/letter_m_enable";
+    public static final String TOUCHSCREEN_S_NODE = "/proc/touchpanel/letter_s_enable";
 
     // Gestures nodes default values
     public static final boolean TOUCHSCREEN_CAMERA_DEFAULT = true;
     public static final boolean TOUCHSCREEN_MUSIC_DEFAULT = true;
     public static final boolean TOUCHSCREEN_FLASHLIGHT_DEFAULT = true;
+    public static final boolean TOUCHSCREEN_DOUBLE_TAP_DEFAULT = false;
+    public static final boolean TOUCHSCREEN_LETTER_DEFAULT = false;
 
     // Alert slider nodes
     public static final String NOTIF_SLIDER_NODE = "/sys/class/switch/tri-state-key/state";
 
-    public static final String NOTIF_SLIDER_FOR_NOTIFICATION = "1";
-    public static final String NOTIF_SLIDER_FOR_FLASHLIGHT = "2";
-    public static final String NOTIF_SLIDER_FOR_BRIGHTNESS = "3";
-    public static final String NOTIF_SLIDER_FOR_ROTATION = "4";
-    public static final String NOTIF_SLIDER_FOR_RINGER = "5";
-    public static final String NOTIF_SLIDER_FOR_NOTIFICATION_RINGER = "6";
-
     public static final String ACTION_UPDATE_SLIDER_SETTINGS
             = "com.oneplus.settings.device.UPDATE_SLIDER_SETTINGS";
 
@@ -75,40 +68,25 @@ public class Constants {
     public static final String KEY_ONEPLUS_SWITCH = "oneplus_mode";
     public static final String KEY_DCI_SWITCH = "dci";
     public static final String KEY_HBM_SWITCH = "hbm";
-
-    // Holds <preference_key> -> <proc_node> mapping
-    public static final Map<String, String> sBooleanNodePreferenceMap = new HashMap<>();
-    public static final Map<String, String> sStringNodePreferenceMap = new HashMap<>();
-
-    // Holds <preference_key> -> <default_values> mapping
-    public static final Map<String, Object> sNodeDefaultMap = new HashMap<>();
-
-    public static final String[] sGesturePrefKeys = {
-        TOUCHSCREEN_CAMERA_GESTURE_KEY,
-        TOUCHSCREEN_MUSIC_GESTURE_KEY,
-        TOUCHSCREEN_FLASHLIGHT_GESTURE_KEY
-    };
-
-    static {
-        sBooleanNodePreferenceMap.put(TOUCHSCREEN_CAMERA_GESTURE_KEY, TOUCHSCREEN_CAMERA_NODE);
-        sBooleanNodePreferenceMap.put(TOUCHSCREEN_MUSIC_GESTURE_KEY, TOUCHSCREEN_DOUBLE_SWIPE_NODE);
-        sBooleanNodePreferenceMap.put(TOUCHSCREEN_FLASHLIGHT_GESTURE_KEY,
-                TOUCHSCREEN_FLASHLIGHT_NODE);
-
-        sNodeDefaultMap.put(TOUCHSCREEN_CAMERA_GESTURE_KEY, TOUCHSCREEN_CAMERA_DEFAULT);
-        sNodeDefaultMap.put(TOUCHSCREEN_MUSIC_GESTURE_KEY, TOUCHSCREEN_MUSIC_DEFAULT);
-        sNodeDefaultMap.put(TOUCHSCREEN_FLASHLIGHT_GESTURE_KEY, TOUCHSCREEN_FLASHLIGHT_DEFAULT);
-    }
-
-    public static boolean isPreferenceEnabled(Context context, String key) {
-        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
-        return preferences.getBoolean(key, (Boolean) sNodeDefaultMap.get(key));
-    }
-
-    public static String getPreferenceString(Context context, String key) {
-        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
-        return preferences.getString(key, (String) sNodeDefaultMap.get(key));
-    }
+    public static final String KEY_HBM_AUTO_OFF_DEADLINE = "hbm_auto_off_deadline";
+    public static final String KEY_AUTO_HBM_SWITCH = "auto_hbm";
+
+    // Pocket mode
+    public static final String KEY_POCKET_MODE = "pocket_mode";
+
+    // Night mode schedule
+    public static final String KEY_NIGHT_SCHEDULE = "night_schedule";
+    public static final String KEY_NIGHT_SCHEDULE_START = "night_schedule_start";
+    public static final String KEY_NIGHT_SCHEDULE_END = "night_schedule_end";
+    public static final String KEY_NIGHT_SCHEDULE_MODE = "night_schedule_mode";
+    public static final String KEY_NIGHT_SCHEDULE_LATITUDE = "night_schedule_latitude";
+    public static final String KEY_NIGHT_SCHEDULE_LONGITUDE = "night_schedule_longitude";
+
+    // Spectrum
+    public static final String SPECTRUM_SYSTEM_PROPERTY = "persist.spectrum.profile";
+    public static final String KEY_SPECTRUM_THROTTLED = "spectrum_throttled";
+    public static final String KEY_SPECTRUM_USER_PROFILE = "spectrum_user_profile";
+    public static final String KEY_SPECTRUM_APPLIED_PROFILE = "spectrum_applied_profile";
 
     public static boolean isNotificationSliderSupported() {
         return true;
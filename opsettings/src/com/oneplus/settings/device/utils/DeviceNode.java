@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.oneplus.settings.device.SettingsStore;
+
+/**
+ * Preferences backed by device nodes: preference key, node path(s), value
+ * type and default. A preference may fan out to several nodes, all of
+ * which get the same value; the first one is used to probe support.
+ *
+ * Switches are touchscreen gestures, which get armed and disarmed with the
+ * screen and toggled together. String nodes are plain values written as
+ * they are; everything handling gestures skips them.
+ *
+ * Everything indexed by node (e.g. DeviceState) uses the ordinal, so
+ * lookups need neither hashing nor boxing.
+ */
+public enum DeviceNode {
+
+    CAMERA_GESTURE(Constants.TOUCHSCREEN_CAMERA_GESTURE_KEY,
+            Constants.TOUCHSCREEN_CAMERA_DEFAULT,
+            Constants.TOUCHSCREEN_CAMERA_NODE),
+    MUSIC_GESTURE(Constants.TOUCHSCREEN_MUSIC_GESTURE_KEY,
+            Constants.TOUCHSCREEN_MUSIC_DEFAULT,
+            Constants.TOUCHSCREEN_DOUBLE_SWIPE_NODE,
+            Constants.TOUCHSCREEN_LEFT_ARROW,
+            Constants.TOUCHSCREEN_RIGHT_ARROW),
+    FLASHLIGHT_GESTURE(Constants.TOUCHSCREEN_FLASHLIGHT_GESTURE_KEY,
+            Constants.TOUCHSCREEN_FLASHLIGHT_DEFAULT,
+            Constants.TOUCHSCREEN_FLASHLIGHT_NODE),
+    DOUBLE_TAP_GESTURE(Constants.TOUCHSCREEN_DOUBLE_TAP_GESTURE_KEY,
+            Constants.TOUCHSCREEN_DOUBLE_TAP_DEFAULT,
+            Constants.TOUCHSCREEN_DOUBLE_TAP_NODE),
+    W_GESTURE(Constants.TOUCHSCREEN_W_GESTURE_KEY,
+            Constants.TOUCHSCREEN_LETTER_DEFAULT,
+            Constants.TOUCHSCREEN_W_NODE),
+    M_GESTURE(Constants.TOUCHSCREEN_M_GESTURE_KEY,
+            Constants.TOUCHSCREEN_LETTER_DEFAULT,
+            Constants.TOUCHSCREEN_M_NODE),
+    S_GESTURE(Constants.TOUCHSCREEN_S_GESTURE_KEY,
+            Constants.TOUCHSCREEN_LETTER_DEFAULT,
+            Constants.TOUCHSCREEN_S_NODE);
+
+    public static final int TYPE_BOOLEAN = 0;
+    public static final int TYPE_STRING = 1;
+
+    private static final String TAG = "DeviceNode";
+
+    // values() copies the array on every call
+    private static final DeviceNode[] ALL = values();
+
+    private final String mKey;
+    private final int mType;
+    private final boolean mGesture;
+    private final boolean mDefaultEnabled;
+    private final String mDefaultValue;
+    private final String[] mNodes;
+
+    DeviceNode(String key, boolean defaultEnabled, String... nodes) {
+        mKey = key;
+        mType = TYPE_BOOLEAN;
+        mGesture = true;
+        mDefaultEnabled = defaultEnabled;
+        mDefaultValue = defaultEnabled ? "1" : "0";
+        mNodes = nodes;
+    }
+
+    DeviceNode(String key, String defaultValue, String... nodes) {
+        mKey = key;
+        mType = TYPE_STRING;
+        mGesture = false;
+        mDefaultEnabled = false;
+        mDefaultValue = defaultValue;
+        mNodes = nodes;
+    }
+
+    public static int count() {
+        return ALL.length;
+    }
+
+    public static DeviceNode get(int index) {
+        return ALL[index];
+    }
+
+    /**
+     * Returns the node preference with the given key, or null.
+     */
+    public static DeviceNode fromKey(String key) {
+        for (DeviceNode node : ALL) {
+            if (node.mKey.equals(key)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    public String getKey() {
+        return mKey;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public boolean isGesture() {
+        return mGesture;
+    }
+
+    /**
+     * Returns the node used to probe for support and to read the value.
+     */
+    public String getNode() {
+        return mNodes[0];
+    }
+
+    public String[] getNodes() {
+        return mNodes;
+    }
+
+    public boolean isReadable() {
+        return FileUtils.isFileReadable(getNode());
+    }
+
+    public boolean isWritable() {
+        return FileUtils.isFileWritable(getNode());
+    }
+
+    public boolean isEnabled(Context context) {
+        return SettingsStore.get(context).getBoolean(mKey, mDefaultEnabled);
+    }
+
+    public String getString(Context context) {
+        return SettingsStore.get(context).getString(mKey, mDefaultValue);
+    }
+
+    public String readValue() {
+        return FileUtils.readOneLine(getNode());
+    }
+
+    public boolean write(boolean enabled) {
+        return write(enabled ? "1" : "0");
+    }
+
+    /**
+     * Writes the value to every node of the preference.
+     *
+     * @return true if every node was written
+     */
+    public boolean write(String value) {
+        boolean success = true;
+        for (String node : mNodes) {
+            if (!FileUtils.writeLine(node, value)) {
+                Log.w(TAG, "Write to node " + node + " failed");
+                success = false;
+            }
+        }
+        return success;
+    }
+}
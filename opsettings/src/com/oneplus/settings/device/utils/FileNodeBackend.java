@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Nodes as plain files, either at their real paths or relocated under a
+ * root directory holding a copy of the device tree.
+ */
+public class FileNodeBackend implements NodeBackend {
+
+    private final String mRoot;
+
+    /**
+     * @param root      directory the absolute node paths are resolved
+     *                  against, or null for the real filesystem
+     */
+    public FileNodeBackend(File root) {
+        mRoot = root != null ? root.getPath() : null;
+    }
+
+    @Override
+    public File getFile(String node) {
+        return mRoot != null ? new File(mRoot, node) : new File(node);
+    }
+
+    @Override
+    public String readLine(String node) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(getFile(node)), 512)) {
+            return reader.readLine();
+        }
+    }
+
+    @Override
+    public void write(String node, String value) throws IOException {
+        try (Writer writer = new FileWriter(getFile(node))) {
+            writer.write(value);
+        }
+    }
+
+    @Override
+    public boolean exists(String node) {
+        return getFile(node).exists();
+    }
+
+    @Override
+    public boolean canRead(String node) {
+        final File file = getFile(node);
+        return file.exists() && file.canRead();
+    }
+
+    @Override
+    public boolean canWrite(String node) {
+        final File file = getFile(node);
+        return file.exists() && file.canWrite();
+    }
+}
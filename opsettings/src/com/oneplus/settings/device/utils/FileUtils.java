@@ -18,12 +18,11 @@ package com.oneplus.settings.device.utils;
 
 import android.util.Log;
 
+import com.oneplus.settings.device.DeviceTrace;
+import com.oneplus.settings.device.FlightRecorder;
+
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 
 public final class FileUtils {
@@ -41,23 +40,24 @@ public final class FileUtils {
      */
     public static String readOneLine(String fileName) {
         String line = null;
-        BufferedReader reader = null;
+        final long start = System.nanoTime();
+        final boolean tracing = DeviceTrace.isEnabled();
+        if (tracing) {
+            DeviceTrace.begin("read " + fileName);
+        }
 
         try {
-            reader = new BufferedReader(new FileReader(fileName), 512);
-            line = reader.readLine();
+            line = Nodes.getBackend().readLine(fileName);
         } catch (FileNotFoundException e) {
             Log.w(TAG, "No such file " + fileName + " for reading", e);
         } catch (IOException e) {
             Log.e(TAG, "Could not read from file " + fileName, e);
         } finally {
-            try {
-                if (reader != null) {
-                    reader.close();
-                }
-            } catch (IOException e) {
-                // Ignored, not much we can do anyway
+            if (tracing) {
+                DeviceTrace.end();
             }
+            FlightRecorder.recordNode(FlightRecorder.EVENT_NODE_READ, fileName, null,
+                    line != null, start);
         }
 
         return line;
@@ -69,28 +69,29 @@ public final class FileUtils {
      * @return true on success, false on failure
      */
     public static boolean writeLine(String fileName, String value) {
-        BufferedWriter writer = null;
+        boolean success = false;
+        final long start = System.nanoTime();
+        final boolean tracing = DeviceTrace.isEnabled();
+        if (tracing) {
+            DeviceTrace.begin("write " + fileName);
+        }
 
         try {
-            writer = new BufferedWriter(new FileWriter(fileName));
-            writer.write(value);
+            Nodes.getBackend().write(fileName, value);
+            success = true;
         } catch (FileNotFoundException e) {
             Log.w(TAG, "No such file " + fileName + " for writing", e);
-            return false;
         } catch (IOException e) {
             Log.e(TAG, "Could not write to file " + fileName, e);
-            return false;
         } finally {
-            try {
-                if (writer != null) {
-                    writer.close();
-                }
-            } catch (IOException e) {
-                // Ignored, not much we can do anyway
+            if (tracing) {
+                DeviceTrace.end();
             }
         }
 
-        return true;
+        FlightRecorder.recordNode(FlightRecorder.EVENT_NODE_WRITE, fileName, value, success,
+                start);
+        return success;
     }
 
     /**
@@ -99,8 +100,7 @@ public final class FileUtils {
      * @return true if exists, false if not
      */
     public static boolean fileExists(String fileName) {
-        final File file = new File(fileName);
-        return file.exists();
+        return Nodes.getBackend().exists(fileName);
     }
 
     /**
@@ -109,8 +109,7 @@ public final class FileUtils {
      * @return true if readable, false if not
      */
     public static boolean isFileReadable(String fileName) {
-        final File file = new File(fileName);
-        return file.exists() && file.canRead();
+        return Nodes.getBackend().canRead(fileName);
     }
 
     /**
@@ -119,7 +118,6 @@ public final class FileUtils {
      * @return true if writable, false if not
      */
     public static boolean isFileWritable(String fileName) {
-        final File file = new File(fileName);
-        return file.exists() && file.canWrite();
+        return Nodes.getBackend().canWrite(fileName);
     }
 }
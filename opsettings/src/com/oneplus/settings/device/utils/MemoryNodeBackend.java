@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Nodes kept in memory, with an optional delay on every access and
+ * injectable failures. Like sysfs, writes only work on existing nodes.
+ */
+public class MemoryNodeBackend implements NodeBackend {
+
+    private final Map<String, String> mValues = new ConcurrentHashMap<>();
+    private final Set<String> mReadOnly = ConcurrentHashMap.newKeySet();
+    private final Set<String> mFailing = ConcurrentHashMap.newKeySet();
+    private final Map<String, AtomicInteger> mWriteCounts = new ConcurrentHashMap<>();
+
+    private volatile long mLatencyNanos;
+
+    /**
+     * Creates a writable node, or resets the value of an existing one.
+     */
+    public void put(String node, String value) {
+        mValues.put(node, value);
+    }
+
+    public void remove(String node) {
+        mValues.remove(node);
+    }
+
+    public void setReadOnly(String node, boolean readOnly) {
+        if (readOnly) {
+            mReadOnly.add(node);
+        } else {
+            mReadOnly.remove(node);
+        }
+    }
+
+    /**
+     * Makes every read and write of the node fail with an IOException.
+     */
+    public void setFailing(String node, boolean failing) {
+        if (failing) {
+            mFailing.add(node);
+        } else {
+            mFailing.remove(node);
+        }
+    }
+
+    /**
+     * Delays every read and write, to mimic slow kernel drivers.
+     */
+    public void setLatency(long nanos) {
+        mLatencyNanos = nanos;
+    }
+
+    /**
+     * Returns the raw value last written to the node, or null.
+     */
+    public String get(String node) {
+        return mValues.get(node);
+    }
+
+    public int getWriteCount(String node) {
+        AtomicInteger count = mWriteCounts.get(node);
+        return count != null ? count.get() : 0;
+    }
+
+    @Override
+    public File getFile(String node) {
+        return null;
+    }
+
+    @Override
+    public String readLine(String node) throws IOException {
+        access(node);
+        String value = mValues.get(node);
+        if (value == null) {
+            throw new FileNotFoundException(node);
+        }
+        if (value.isEmpty()) {
+            return null;
+        }
+        int end = value.indexOf('\n');
+        return end >= 0 ? value.substring(0, end) : value;
+    }
+
+    @Override
+    public void write(String node, String value) throws IOException {
+        access(node);
+        if (!mValues.containsKey(node)) {
+            throw new FileNotFoundException(node);
+        }
+        if (mReadOnly.contains(node)) {
+            throw new IOException("Permission denied: " + node);
+        }
+        mValues.put(node, value);
+        AtomicInteger count = mWriteCounts.get(node);
+        if (count == null) {
+            mWriteCounts.putIfAbsent(node, new AtomicInteger());
+            count = mWriteCounts.get(node);
+        }
+        count.incrementAndGet();
+    }
+
+    @Override
+    public boolean exists(String node) {
+        return mValues.containsKey(node);
+    }
+
+    @Override
+    public boolean canRead(String node) {
+        return exists(node);
+    }
+
+    @Override
+    public boolean canWrite(String node) {
+        return exists(node) && !mReadOnly.contains(node);
+    }
+
+    private void access(String node) throws IOException {
+        final long latency = mLatencyNanos;
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency / 1000000, (int) (latency % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (mFailing.contains(node)) {
+            throw new IOException("Injected failure: " + node);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device.utils;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Storage behind the sysfs and procfs nodes. Nodes are always named by
+ * their absolute device path; the backend decides where they really live.
+ *
+ * @see Nodes
+ */
+public interface NodeBackend {
+
+    /**
+     * Returns the first line of the node, or null if it is empty.
+     */
+    String readLine(String node) throws IOException;
+
+    void write(String node, String value) throws IOException;
+
+    boolean exists(String node);
+
+    boolean canRead(String node);
+
+    boolean canWrite(String node);
+
+    /**
+     * Returns the file backing the node, or null if nodes are not files.
+     */
+    File getFile(String node);
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device.utils;
+
+/**
+ * Holds the node backend every node access goes through.
+ */
+public final class Nodes {
+
+    private static volatile NodeBackend sBackend = new FileNodeBackend(null);
+
+    private Nodes() {
+        // This class is not supposed to be instantiated
+    }
+
+    public static NodeBackend getBackend() {
+        return sBackend;
+    }
+
+    /**
+     * Replaces the node backend, e.g. with a {@link MemoryNodeBackend} or a
+     * {@link FileNodeBackend} on a fake tree to exercise the node paths in
+     * tests. Should be called before anything touches a node.
+     */
+    public static void setBackend(NodeBackend backend) {
+        sBackend = backend;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import com.oneplus.settings.device.utils.MemoryNodeBackend;
+import com.oneplus.settings.device.utils.NodeBackend;
+import com.oneplus.settings.device.utils.Nodes;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * Installs an in-memory node backend for the duration of a test, and puts
+ * the previous backend back afterwards.
+ */
+public class NodeBackendRule extends ExternalResource {
+
+    private final MemoryNodeBackend mBackend;
+    private NodeBackend mOldBackend;
+
+    public NodeBackendRule() {
+        this(new MemoryNodeBackend());
+    }
+
+    public NodeBackendRule(MemoryNodeBackend backend) {
+        mBackend = backend;
+    }
+
+    public MemoryNodeBackend getBackend() {
+        return mBackend;
+    }
+
+    /**
+     * Switches to another backend for the rest of the test.
+     */
+    public void use(NodeBackend backend) {
+        Nodes.setBackend(backend);
+    }
+
+    @Override
+    protected void before() {
+        mOldBackend = Nodes.getBackend();
+        Nodes.setBackend(mBackend);
+    }
+
+    @Override
+    protected void after() {
+        Nodes.setBackend(mOldBackend);
+    }
+}
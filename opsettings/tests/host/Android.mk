@@ -0,0 +1,33 @@
+#
+# Copyright (C) 2019 Havoc-OS
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+LOCAL_PATH := $(call my-dir)
+include $(CLEAR_VARS)
+
+# Plain Java parts of the app, checked on the build host
+LOCAL_SRC_FILES := \
+    $(call all-java-files-under, src) \
+    ../../src/com/oneplus/settings/device/PowerPolicy.java \
+    ../../src/com/oneplus/settings/device/ThermalGovernor.java \
+    ../../src/com/oneplus/settings/device/utils/FileNodeBackend.java \
+    ../../src/com/oneplus/settings/device/utils/MemoryNodeBackend.java \
+    ../../src/com/oneplus/settings/device/utils/NodeBackend.java
+
+LOCAL_MODULE := OPSettingsHostTests
+LOCAL_MODULE_TAGS := tests
+LOCAL_STATIC_JAVA_LIBRARIES := junit-host
+
+include $(BUILD_HOST_JAVA_LIBRARY)
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PowerPolicyTest {
+
+    private static final int RESTRICTIONS =
+            PowerPolicy.RESTRICT_HBM | PowerPolicy.RESTRICT_SPECTRUM;
+
+    private FakeCallback mCallback;
+    private PowerPolicy mPolicy;
+
+    @Before
+    public void setUp() {
+        mCallback = new FakeCallback();
+        mPolicy = new PowerPolicy(RESTRICTIONS, 15, 20, mCallback);
+    }
+
+    @Test
+    public void firstUpdateReportsEveryRestriction() {
+        mPolicy.update(false, false, 80);
+        assertEquals(1, mCallback.mCalls);
+        assertEquals(0, mCallback.mRestrictions);
+        assertEquals(RESTRICTIONS, mCallback.mChanged);
+
+        mPolicy.update(false, false, 79);
+        assertEquals(1, mCallback.mCalls);
+    }
+
+    @Test
+    public void restrictsWhileSavingPower() {
+        mPolicy.update(true, false, 80);
+        assertEquals(RESTRICTIONS, mCallback.mRestrictions);
+        assertTrue(mPolicy.isRestricted(PowerPolicy.RESTRICT_HBM));
+
+        mPolicy.update(false, false, 80);
+        assertEquals(2, mCallback.mCalls);
+        assertEquals(0, mCallback.mRestrictions);
+        assertEquals(RESTRICTIONS, mCallback.mChanged);
+    }
+
+    @Test
+    public void restoresLowBatteryWithHysteresis() {
+        mPolicy.update(false, false, 15);
+        assertTrue(mPolicy.isLowBattery());
+
+        mPolicy.update(false, false, 19);
+        assertTrue(mPolicy.isLowBattery());
+        assertEquals(1, mCallback.mCalls);
+
+        mPolicy.update(false, false, 20);
+        assertFalse(mPolicy.isLowBattery());
+        assertEquals(0, mCallback.mRestrictions);
+
+        // Charging lifts it at once
+        mPolicy.update(false, false, 10);
+        mPolicy.update(false, true, 10);
+        assertFalse(mPolicy.isLowBattery());
+        assertEquals(4, mCallback.mCalls);
+    }
+
+    @Test
+    public void clearLiftsRestrictions() {
+        mPolicy.update(true, false, 80);
+        mPolicy.clear();
+        assertEquals(0, mPolicy.getRestrictions());
+        assertEquals(0, mCallback.mRestrictions);
+        assertEquals(RESTRICTIONS, mCallback.mChanged);
+
+        mPolicy.clear();
+        assertEquals(2, mCallback.mCalls);
+    }
+
+    private static class FakeCallback implements PowerPolicy.Callback {
+
+        int mCalls;
+        int mRestrictions;
+        int mChanged;
+
+        @Override
+        public void onRestrictionsChanged(int restrictions, int changed) {
+            mCalls++;
+            mRestrictions = restrictions;
+            mChanged = changed;
+        }
+    }
+}
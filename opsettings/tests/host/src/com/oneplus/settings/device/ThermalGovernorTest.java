@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.oneplus.settings.device.utils.FileNodeBackend;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Runs the governor against a fake sysfs tree in a temporary directory.
+ */
+public class ThermalGovernorTest {
+
+    private static final String ROOT = ThermalGovernor.DEFAULT_THERMAL_ROOT;
+
+    // HBM throttle/restore and Spectrum throttle/restore, in degrees
+    private static final int[] TEMPS = { 45, 40, 48, 43 };
+
+    private static final long MIN_INTERVAL = 5000;
+    private static final long MAX_INTERVAL = 60000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private FileNodeBackend mBackend;
+    private FakeCallback mCallback;
+
+    @Before
+    public void setUp() {
+        mBackend = new FileNodeBackend(mFolder.getRoot());
+        mCallback = new FakeCallback();
+    }
+
+    @Test
+    public void throttlesAndRestoresWithHysteresis() throws IOException {
+        addZone(0, "battery", "30000");
+        ThermalGovernor governor = newGovernor();
+
+        governor.poll();
+        assertFalse(governor.isHbmThrottled());
+        assertFalse(governor.isSpectrumThrottled());
+
+        setTemp(0, "45000");
+        governor.poll();
+        assertTrue(governor.isHbmThrottled());
+        assertFalse(governor.isSpectrumThrottled());
+        assertEquals(2, mCallback.mHbmCalls);
+
+        setTemp(0, "48000");
+        governor.poll();
+        assertTrue(governor.isSpectrumThrottled());
+        assertEquals(2, mCallback.mSpectrumCalls);
+
+        // HBM stays throttled until it cooled down to its restore temperature
+        setTemp(0, "43000");
+        governor.poll();
+        assertTrue(governor.isHbmThrottled());
+        assertFalse(governor.isSpectrumThrottled());
+        assertEquals(2, mCallback.mHbmCalls);
+        assertEquals(3, mCallback.mSpectrumCalls);
+
+        setTemp(0, "40000");
+        governor.poll();
+        assertFalse(governor.isHbmThrottled());
+        assertFalse(mCallback.mHbmThrottled);
+        assertEquals(3, mCallback.mHbmCalls);
+    }
+
+    @Test
+    public void firstReadingReportsBothStates() throws IOException {
+        addZone(0, "battery", "30000");
+        ThermalGovernor governor = newGovernor();
+
+        governor.poll();
+        assertEquals(1, mCallback.mHbmCalls);
+        assertEquals(1, mCallback.mSpectrumCalls);
+        assertFalse(mCallback.mHbmThrottled);
+        assertFalse(mCallback.mSpectrumThrottled);
+
+        governor.poll();
+        assertEquals(1, mCallback.mHbmCalls);
+        assertEquals(1, mCallback.mSpectrumCalls);
+    }
+
+    @Test
+    public void watchesHottestZoneOfWantedTypes() throws IOException {
+        addZone(0, "battery", "30000");
+        addZone(1, "cpu0", "90000");
+        addZone(2, "skin", "46000");
+        ThermalGovernor governor = newGovernor("battery", "skin");
+
+        assertEquals(46000, governor.readMaxTemp());
+        governor.poll();
+        assertTrue(governor.isHbmThrottled());
+    }
+
+    @Test
+    public void skipsInvalidReadings() throws IOException {
+        addZone(0, "battery", "35");
+        addZone(1, "bogus", "garbage");
+        addZone(2, "disconnected", "-273000");
+        ThermalGovernor governor = newGovernor();
+
+        // Whole degrees are taken as such, the rest is ignored
+        assertEquals(35000, governor.readMaxTemp());
+    }
+
+    @Test
+    public void backsOffWhileStable() throws IOException {
+        addZone(0, "battery", "30000");
+        ThermalGovernor governor = newGovernor();
+
+        assertEquals(MIN_INTERVAL, governor.poll());
+        assertEquals(2 * MIN_INTERVAL, governor.poll());
+        assertEquals(4 * MIN_INTERVAL, governor.poll());
+        for (int i = 0; i < 10; i++) {
+            governor.poll();
+        }
+        assertEquals(MAX_INTERVAL, governor.getInterval());
+
+        // Close to a threshold the governor polls fast again
+        setTemp(0, "43000");
+        assertEquals(MIN_INTERVAL, governor.poll());
+        assertEquals(MIN_INTERVAL, governor.poll());
+    }
+
+    @Test
+    public void pollsSlowlyWithoutReadings() throws IOException {
+        addZone(0, "battery", "garbage");
+        ThermalGovernor governor = newGovernor();
+
+        assertTrue(governor.hasZones());
+        assertEquals(MAX_INTERVAL, governor.poll());
+        assertEquals(0, mCallback.mHbmCalls);
+    }
+
+    @Test
+    public void findsNoZonesWithoutThermalRoot() {
+        assertFalse(newGovernor().hasZones());
+    }
+
+    private ThermalGovernor newGovernor(String... zoneTypes) {
+        return new ThermalGovernor(mBackend, ROOT, zoneTypes, TEMPS,
+                MIN_INTERVAL, MAX_INTERVAL, mCallback);
+    }
+
+    private void addZone(int index, String type, String temp) throws IOException {
+        File zone = mBackend.getFile(ROOT + "/thermal_zone" + index);
+        assertTrue(zone.mkdirs());
+        write(new File(zone, "type"), type);
+        write(new File(zone, "temp"), temp);
+    }
+
+    private void setTemp(int index, String temp) throws IOException {
+        write(mBackend.getFile(ROOT + "/thermal_zone" + index + "/temp"), temp);
+    }
+
+    private static void write(File file, String value) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(value + "\n");
+        }
+    }
+
+    private static class FakeCallback implements ThermalGovernor.Callback {
+
+        int mHbmCalls;
+        int mSpectrumCalls;
+        boolean mHbmThrottled;
+        boolean mSpectrumThrottled;
+
+        @Override
+        public void setHbmThrottled(boolean throttled) {
+            mHbmCalls++;
+            mHbmThrottled = throttled;
+        }
+
+        @Override
+        public void setSpectrumThrottled(boolean throttled) {
+            mSpectrumCalls++;
+            mSpectrumThrottled = throttled;
+        }
+    }
+}
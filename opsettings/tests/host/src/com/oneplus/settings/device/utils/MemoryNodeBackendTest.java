@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * The in-memory backend, checked against the NodeBackend contract and the
+ * file backend.
+ */
+public class MemoryNodeBackendTest {
+
+    private static final String NODE = "/proc/touchpanel/double_tap_enable";
+    private static final String MISSING = "/proc/touchpanel/missing";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private MemoryNodeBackend mBackend;
+
+    @Before
+    public void setUp() {
+        mBackend = new MemoryNodeBackend();
+        mBackend.put(NODE, "0");
+    }
+
+    @Test
+    public void readsFirstLine() throws IOException {
+        assertEquals("0", mBackend.readLine(NODE));
+        mBackend.put(NODE, "1\n2\n");
+        assertEquals("1", mBackend.readLine(NODE));
+    }
+
+    @Test
+    public void readsEmptyNodeAsNullLikeFiles() throws IOException {
+        FileNodeBackend files = new FileNodeBackend(mFolder.getRoot());
+        assertTrue(files.getFile(NODE).getParentFile().mkdirs());
+        files.write(NODE, "");
+        mBackend.put(NODE, "");
+
+        assertNull(files.readLine(NODE));
+        assertNull(mBackend.readLine(NODE));
+    }
+
+    @Test
+    public void writesExistingNodesOnly() throws IOException {
+        mBackend.write(NODE, "1");
+        assertEquals("1", mBackend.get(NODE));
+        assertEquals(1, mBackend.getWriteCount(NODE));
+
+        try {
+            mBackend.write(MISSING, "1");
+            fail();
+        } catch (FileNotFoundException e) {
+            // Expected, like a missing sysfs node
+        }
+        assertFalse(mBackend.exists(MISSING));
+        assertEquals(0, mBackend.getWriteCount(MISSING));
+
+        try {
+            mBackend.readLine(MISSING);
+            fail();
+        } catch (FileNotFoundException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void refusesWritesToReadOnlyNodes() throws IOException {
+        mBackend.setReadOnly(NODE, true);
+        assertTrue(mBackend.canRead(NODE));
+        assertFalse(mBackend.canWrite(NODE));
+        try {
+            mBackend.write(NODE, "1");
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+        assertEquals("0", mBackend.get(NODE));
+
+        mBackend.setReadOnly(NODE, false);
+        assertTrue(mBackend.canWrite(NODE));
+    }
+
+    @Test
+    public void injectsFailures() throws IOException {
+        mBackend.setFailing(NODE, true);
+        try {
+            mBackend.readLine(NODE);
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+        try {
+            mBackend.write(NODE, "1");
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+        assertEquals(0, mBackend.getWriteCount(NODE));
+
+        mBackend.setFailing(NODE, false);
+        assertEquals("0", mBackend.readLine(NODE));
+    }
+
+    @Test
+    public void delaysAccessByLatency() throws IOException {
+        final long latency = 20 * 1000000L;
+        mBackend.setLatency(latency);
+        final long start = System.nanoTime();
+        mBackend.readLine(NODE);
+        assertTrue(System.nanoTime() - start >= latency);
+    }
+
+    @Test
+    public void removesNodes() {
+        mBackend.remove(NODE);
+        assertFalse(mBackend.exists(NODE));
+        assertFalse(mBackend.canRead(NODE));
+        assertNull(mBackend.get(NODE));
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.oneplus.settings.device.utils.Constants;
+import com.oneplus.settings.device.utils.DeviceNode;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Table lookups on the settings and input paths: node preferences by key,
+ * slider actions and gesture scancodes.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class LookupPerfTest {
+
+    // The last node preference, the worst case of the linear search
+    private static final String LAST_KEY = Constants.TOUCHSCREEN_S_GESTURE_KEY;
+
+    private static final int[] SLIDER_ACTIONS = {
+        SliderCatalog.RINGER_NORMAL,
+        SliderCatalog.RINGER_VIBRATE,
+        SliderCatalog.RINGER_SILENT
+    };
+
+    // Gesture scancodes and their neighbours
+    private static final int FIRST_SCANCODE = 240;
+    private static final int LAST_SCANCODE = 260;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    @Test
+    public void deviceNodeFromKey() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            DeviceNode.fromKey(LAST_KEY);
+        }
+    }
+
+    @Test
+    public void deviceNodeFromUnknownKey() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            DeviceNode.fromKey("unknown");
+        }
+    }
+
+    @Test
+    public void deviceNodeByIndex() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            for (int i = 0; i < DeviceNode.count(); i++) {
+                DeviceNode.get(i).getNode();
+            }
+        }
+    }
+
+    @Test
+    public void sliderCatalogIsValid() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            SliderCatalog.isValid(SliderCatalog.USAGE_RINGER, SLIDER_ACTIONS);
+        }
+    }
+
+    @Test
+    public void gestureRegistryGetAction() {
+        final GestureRegistry registry =
+                GestureRegistry.load(InstrumentationRegistry.getTargetContext());
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            for (int scancode = FIRST_SCANCODE; scancode <= LAST_SCANCODE; scancode++) {
+                registry.getAction(scancode);
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import static org.junit.Assert.assertTrue;
+
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.oneplus.settings.device.utils.Constants;
+import com.oneplus.settings.device.utils.FileNodeBackend;
+import com.oneplus.settings.device.utils.FileUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+/**
+ * Node reads and writes through FileUtils and Utils, on files below the
+ * cache directory and on the in-memory backend. The latter leaves only the
+ * tracing and flight recorder overhead.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class NodeIoPerfTest {
+
+    private static final String NODE = Constants.TOUCHSCREEN_DOUBLE_TAP_NODE;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    @Rule
+    public NodeBackendRule mNodes = new NodeBackendRule();
+
+    private File mRoot;
+
+    @Before
+    public void setUp() {
+        mRoot = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "nodes");
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursive(mRoot);
+    }
+
+    @Test
+    public void fileUtilsReadOneLine() {
+        useFiles();
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            FileUtils.readOneLine(NODE);
+        }
+    }
+
+    @Test
+    public void fileUtilsWriteLine() {
+        useFiles();
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            FileUtils.writeLine(NODE, "1");
+        }
+    }
+
+    @Test
+    public void utilsReadLine() {
+        useFiles();
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            Utils.readLine(NODE);
+        }
+    }
+
+    @Test
+    public void utilsWriteValue() {
+        useFiles();
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            Utils.writeValue(NODE, "1");
+        }
+    }
+
+    @Test
+    public void fileUtilsReadOneLineInMemory() {
+        useMemory();
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            FileUtils.readOneLine(NODE);
+        }
+    }
+
+    @Test
+    public void fileUtilsWriteLineInMemory() {
+        useMemory();
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            FileUtils.writeLine(NODE, "1");
+        }
+    }
+
+    private void useFiles() {
+        FileNodeBackend backend = new FileNodeBackend(mRoot);
+        File node = backend.getFile(NODE);
+        assertTrue(node.getParentFile().mkdirs() || node.getParentFile().isDirectory());
+        mNodes.use(backend);
+        assertTrue(FileUtils.writeLine(NODE, "0"));
+    }
+
+    private void useMemory() {
+        mNodes.getBackend().put(NODE, "0");
+    }
+
+    private static void deleteRecursive(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        file.delete();
+    }
+}
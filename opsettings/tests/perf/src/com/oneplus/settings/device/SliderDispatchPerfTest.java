@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Slider event dispatch, from the key code to the controller action.
+ *
+ * The controller leaves every action unprocessed, so no haptic feedback is
+ * played and only the dispatch itself is measured.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class SliderDispatchPerfTest {
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private NoOpController mController;
+
+    @Before
+    public void setUp() {
+        mController = new NoOpController(InstrumentationRegistry.getTargetContext());
+        mController.update(new int[] {
+            SliderCatalog.RINGER_NORMAL,
+            SliderCatalog.RINGER_VIBRATE,
+            SliderCatalog.RINGER_SILENT
+        });
+    }
+
+    @Test
+    public void processEvent() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            for (int key = SliderControllerBase.KEY_SLIDER_TOP;
+                    key <= SliderControllerBase.KEY_SLIDER_BOTTOM; key++) {
+                mController.processEvent(key);
+            }
+        }
+        assertTrue(mController.mCount > 0);
+    }
+
+    @Test
+    public void processUnsupportedEvent() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mController.processEvent(0);
+        }
+    }
+
+    private static class NoOpController extends SliderControllerBase {
+
+        int mCount;
+
+        NoOpController(Context context) {
+            super(context);
+        }
+
+        @Override
+        protected boolean processAction(int action) {
+            mCount++;
+            return false;
+        }
+
+        @Override
+        public void reset() {
+        }
+    }
+}
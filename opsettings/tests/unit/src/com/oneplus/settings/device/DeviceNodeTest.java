@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.oneplus.settings.device.utils.Constants;
+import com.oneplus.settings.device.utils.DeviceNode;
+import com.oneplus.settings.device.utils.MemoryNodeBackend;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Gesture node writes, directly and through the gesture gate, on the
+ * in-memory backend.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DeviceNodeTest {
+
+    @Rule
+    public NodeBackendRule mNodes = new NodeBackendRule();
+
+    private Context mContext;
+    private MemoryNodeBackend mBackend;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mBackend = mNodes.getBackend();
+        for (int i = 0; i < DeviceNode.count(); i++) {
+            for (String node : DeviceNode.get(i).getNodes()) {
+                mBackend.put(node, "0");
+            }
+        }
+    }
+
+    @Test
+    public void findsNodesByKey() {
+        for (int i = 0; i < DeviceNode.count(); i++) {
+            DeviceNode node = DeviceNode.get(i);
+            assertSame(node, DeviceNode.fromKey(node.getKey()));
+        }
+        assertSame(DeviceNode.MUSIC_GESTURE,
+                DeviceNode.fromKey(Constants.TOUCHSCREEN_MUSIC_GESTURE_KEY));
+        assertNull(DeviceNode.fromKey("unknown"));
+    }
+
+    @Test
+    public void writesEveryMusicGestureNode() {
+        final String[] nodes = DeviceNode.MUSIC_GESTURE.getNodes();
+        assertEquals(3, nodes.length);
+
+        assertTrue(DeviceNode.MUSIC_GESTURE.write(true));
+        for (String node : nodes) {
+            assertEquals(node, "1", mBackend.get(node));
+            assertEquals(node, 1, mBackend.getWriteCount(node));
+        }
+        assertEquals("1", DeviceNode.MUSIC_GESTURE.readValue());
+    }
+
+    @Test
+    public void keepsWritingAfterFailedNode() {
+        final String[] nodes = DeviceNode.MUSIC_GESTURE.getNodes();
+        mBackend.setFailing(nodes[1], true);
+
+        assertFalse(DeviceNode.MUSIC_GESTURE.write(true));
+        assertEquals("1", mBackend.get(nodes[0]));
+        assertEquals("0", mBackend.get(nodes[1]));
+        assertEquals("1", mBackend.get(nodes[2]));
+    }
+
+    @Test
+    public void probesSupportOnFirstNode() {
+        final String[] nodes = DeviceNode.MUSIC_GESTURE.getNodes();
+        assertTrue(DeviceNode.MUSIC_GESTURE.isWritable());
+        mBackend.setReadOnly(nodes[0], true);
+        assertFalse(DeviceNode.MUSIC_GESTURE.isWritable());
+        assertTrue(DeviceNode.MUSIC_GESTURE.isReadable());
+        mBackend.remove(nodes[0]);
+        assertFalse(DeviceNode.MUSIC_GESTURE.isReadable());
+    }
+
+    @Test
+    public void gateWritesDisabledWhilePocketed() {
+        final String node = DeviceNode.CAMERA_GESTURE.getNode();
+        assertTrue(GestureGate.writeGesture(DeviceNode.CAMERA_GESTURE, true));
+        assertEquals("1", mBackend.get(node));
+
+        try {
+            GestureGate.setPocketed(mContext, true);
+            assertFalse(GestureGate.isArmed());
+            assertTrue(GestureGate.writeGesture(DeviceNode.CAMERA_GESTURE, true));
+            assertEquals("0", mBackend.get(node));
+        } finally {
+            GestureGate.setPocketed(mContext, false);
+        }
+        assertTrue(GestureGate.isArmed());
+        assertTrue(GestureGate.writeGesture(DeviceNode.CAMERA_GESTURE, false));
+        assertEquals("0", mBackend.get(node));
+    }
+
+    @Test
+    public void gateRestrictsMusicGestureOnly() {
+        try {
+            GestureGate.setMusicRestricted(mContext, true);
+            assertTrue(GestureGate.writeGesture(DeviceNode.MUSIC_GESTURE, true));
+            assertTrue(GestureGate.writeGesture(DeviceNode.CAMERA_GESTURE, true));
+            for (String node : DeviceNode.MUSIC_GESTURE.getNodes()) {
+                assertEquals(node, "0", mBackend.get(node));
+            }
+            assertEquals("1", mBackend.get(DeviceNode.CAMERA_GESTURE.getNode()));
+        } finally {
+            GestureGate.setMusicRestricted(mContext, false);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.oneplus.settings.device.utils.MemoryNodeBackend;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Panel mode switching on in-memory panel nodes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DeviceStateTest {
+
+    private static final int[] MODES = {
+        DeviceState.PANEL_MODE_SRGB,
+        DeviceState.PANEL_MODE_DCI,
+        DeviceState.PANEL_MODE_NIGHT,
+        DeviceState.PANEL_MODE_ONEPLUS
+    };
+
+    private static final String[] NODES = {
+        SRGBModeSwitch.FILE,
+        DCIModeSwitch.FILE,
+        NightModeSwitch.FILE,
+        OneplusModeSwitch.FILE
+    };
+
+    @Rule
+    public NodeBackendRule mNodes = new NodeBackendRule();
+
+    private MemoryNodeBackend mBackend;
+
+    @Before
+    public void setUp() {
+        mBackend = mNodes.getBackend();
+        for (String node : NODES) {
+            mBackend.put(node, "0");
+        }
+    }
+
+    @Test
+    public void resolvesPanelModeNodes() {
+        for (int i = 0; i < MODES.length; i++) {
+            assertEquals(NODES[i], DeviceState.getPanelModeFile(MODES[i]));
+        }
+        assertNull(DeviceState.getPanelModeFile(DeviceState.PANEL_MODE_OFF));
+
+        mBackend.setReadOnly(NODES[0], true);
+        assertNull(DeviceState.getPanelModeFile(DeviceState.PANEL_MODE_SRGB));
+    }
+
+    @Test
+    public void turnsOnOneModeAtATime() {
+        for (int mode : MODES) {
+            DeviceState.writePanelMode(mode);
+            assertOnlyOn(mode);
+        }
+        DeviceState.writePanelMode(DeviceState.PANEL_MODE_DCI);
+        DeviceState.writePanelMode(DeviceState.PANEL_MODE_DCI);
+        assertOnlyOn(DeviceState.PANEL_MODE_DCI);
+
+        DeviceState.writePanelMode(DeviceState.PANEL_MODE_OFF);
+        assertOnlyOn(DeviceState.PANEL_MODE_OFF);
+    }
+
+    @Test
+    public void skipsUnsupportedModes() {
+        mBackend.remove(NODES[2]);
+        DeviceState.writePanelMode(DeviceState.PANEL_MODE_SRGB);
+        assertOnlyOn(DeviceState.PANEL_MODE_SRGB);
+        assertNull(mBackend.get(NODES[2]));
+    }
+
+    private void assertOnlyOn(int mode) {
+        for (int i = 0; i < MODES.length; i++) {
+            if (mBackend.get(NODES[i]) != null) {
+                assertEquals(NODES[i], MODES[i] == mode ? "1" : "0", mBackend.get(NODES[i]));
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.oneplus.settings.device.utils.FileNodeBackend;
+import com.oneplus.settings.device.utils.FileUtils;
+import com.oneplus.settings.device.utils.MemoryNodeBackend;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+/**
+ * Node reads and writes through FileUtils and Utils, on a relocated file
+ * tree and on the in-memory backend.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FileUtilsTest {
+
+    private static final String NODE = "/proc/touchpanel/double_tap_enable";
+    private static final String MISSING = "/proc/touchpanel/missing";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Rule
+    public NodeBackendRule mNodes = new NodeBackendRule();
+
+    private MemoryNodeBackend mMemory;
+
+    @Before
+    public void setUp() {
+        mMemory = mNodes.getBackend();
+        mMemory.put(NODE, "0");
+    }
+
+    @Test
+    public void readsAndWritesRelocatedFiles() {
+        FileNodeBackend backend = new FileNodeBackend(mFolder.getRoot());
+        File node = backend.getFile(NODE);
+        assertEquals(new File(mFolder.getRoot(), NODE), node);
+        assertTrue(node.getParentFile().mkdirs());
+        mNodes.use(backend);
+
+        assertFalse(FileUtils.fileExists(NODE));
+        assertFalse(FileUtils.writeLine(NODE + "/child", "1"));
+
+        assertTrue(FileUtils.writeLine(NODE, "1\n"));
+        assertTrue(FileUtils.fileExists(NODE));
+        assertTrue(FileUtils.isFileReadable(NODE));
+        assertTrue(FileUtils.isFileWritable(NODE));
+        assertEquals("1", FileUtils.readOneLine(NODE));
+
+        Utils.writeValue(NODE, "0");
+        assertEquals("0", Utils.readLine(NODE));
+        assertFalse(Utils.getFileValueAsBoolean(NODE, true));
+        assertTrue(Utils.fileWritable(NODE));
+    }
+
+    @Test
+    public void readsFirstLineOnly() {
+        mMemory.put(NODE, "1\n2\n");
+        assertEquals("1", FileUtils.readOneLine(NODE));
+        assertEquals("1", Utils.readLine(NODE));
+    }
+
+    @Test
+    public void readsEmptyNodeAsNull() {
+        mMemory.put(NODE, "");
+        assertNull(FileUtils.readOneLine(NODE));
+        assertEquals("def", Utils.getFileValue(NODE, "def"));
+    }
+
+    @Test
+    public void countsWrites() {
+        assertTrue(FileUtils.writeLine(NODE, "1"));
+        Utils.writeValue(NODE, "0");
+        assertEquals(2, mMemory.getWriteCount(NODE));
+        assertEquals("0", mMemory.get(NODE));
+    }
+
+    @Test
+    public void failsOnMissingNodes() {
+        assertFalse(FileUtils.fileExists(MISSING));
+        assertNull(FileUtils.readOneLine(MISSING));
+        assertNull(Utils.readLine(MISSING));
+        assertEquals("def", Utils.getFileValue(MISSING, "def"));
+        assertFalse(FileUtils.writeLine(MISSING, "1"));
+        assertNull(mMemory.get(MISSING));
+
+        // Missing optional nodes come in as null paths
+        assertNull(Utils.readLine(null));
+        assertFalse(Utils.fileExists(null));
+        assertFalse(Utils.fileWritable(null));
+        Utils.writeValue(null, "1");
+    }
+
+    @Test
+    public void refusesWritesToReadOnlyNodes() {
+        mMemory.setReadOnly(NODE, true);
+        assertTrue(FileUtils.isFileReadable(NODE));
+        assertFalse(FileUtils.isFileWritable(NODE));
+        assertFalse(FileUtils.writeLine(NODE, "1"));
+        Utils.writeValue(NODE, "1");
+        assertEquals("0", FileUtils.readOneLine(NODE));
+        assertEquals(0, mMemory.getWriteCount(NODE));
+    }
+
+    @Test
+    public void reportsInjectedFailures() {
+        mMemory.setFailing(NODE, true);
+        assertNull(FileUtils.readOneLine(NODE));
+        assertNull(Utils.readLine(NODE));
+        assertTrue(Utils.getFileValueAsBoolean(NODE, true));
+        assertFalse(FileUtils.writeLine(NODE, "1"));
+
+        mMemory.setFailing(NODE, false);
+        assertTrue(FileUtils.writeLine(NODE, "1"));
+        assertEquals("1", FileUtils.readOneLine(NODE));
+    }
+
+    @Test
+    public void delaysAccessByLatency() {
+        final long latency = 20 * 1000000L;
+        mMemory.setLatency(latency);
+
+        long start = System.nanoTime();
+        FileUtils.readOneLine(NODE);
+        assertTrue(System.nanoTime() - start >= latency);
+
+        start = System.nanoTime();
+        FileUtils.writeLine(NODE, "1");
+        assertTrue(System.nanoTime() - start >= latency);
+    }
+}
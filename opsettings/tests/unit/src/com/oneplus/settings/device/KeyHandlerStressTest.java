@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import android.app.Activity;
+import android.app.ITaskStackListener;
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.KeyEvent;
+
+import com.oneplus.settings.device.slider.FlashlightController;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Fires bursts of randomized gesture and slider key events through the key
+ * handler on stubbed system services, reports throughput and latency, and
+ * checks that nothing is left behind once the burst is over.
+ *
+ * The proximity sensor is the real one, so on a covered sensor gestures get
+ * rejected instead of run; both paths have to clean up the same way.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class KeyHandlerStressTest {
+
+    private static final String TAG = "KeyHandlerStressTest";
+
+    private static final String KEY_GESTURE_HAPTIC_FEEDBACK =
+            "touchscreen_gesture_haptic_feedback";
+
+    private static final int UNSUPPORTED_SCANCODE = 100;
+
+    private static final int EVENTS = 50000;
+    private static final long SEED = 42;
+
+    // Longer than the proximity timeout and its wakelock
+    private static final long SETTLE_TIME = 1000;
+
+    // Usage and the actions of the three slider positions
+    private static final int[] FLASHLIGHT = {
+        SliderCatalog.USAGE_FLASHLIGHT,
+        SliderCatalog.FLASHLIGHT_OFF,
+        SliderCatalog.FLASHLIGHT_ON,
+        SliderCatalog.FLASHLIGHT_BLINK
+    };
+    private static final int[] RINGER = {
+        SliderCatalog.USAGE_RINGER,
+        SliderCatalog.RINGER_NORMAL,
+        SliderCatalog.RINGER_VIBRATE,
+        SliderCatalog.RINGER_SILENT
+    };
+    private static final int[][] SLIDER_CONFIGS = {
+        FLASHLIGHT,
+        RINGER,
+        {
+            SliderCatalog.USAGE_ROTATION,
+            SliderCatalog.ROTATION_AUTO,
+            SliderCatalog.ROTATION_0,
+            SliderCatalog.ROTATION_PER_APP
+        },
+        {
+            SliderCatalog.USAGE_NOTIFICATION,
+            SliderCatalog.NOTIFICATION_TOTAL_SILENCE,
+            SliderCatalog.NOTIFICATION_PRIORITY_ONLY,
+            SliderCatalog.NOTIFICATION_ALL
+        },
+        {
+            SliderCatalog.USAGE_BRIGHTNESS,
+            SliderCatalog.BRIGHTNESS_AUTO,
+            SliderCatalog.BRIGHTNESS_BRIGHTEST,
+            SliderCatalog.BRIGHTNESS_DARKEST
+        }
+    };
+
+    @Rule
+    public NodeBackendRule mNodes = new NodeBackendRule();
+
+    private Context mContext;
+    private Instrumentation mInstrumentation;
+    private StubServiceHandles mServices;
+    private int mOldHapticFeedback;
+    private KeyHandler mKeyHandler;
+    private int[] mScancodes;
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mContext = InstrumentationRegistry.getTargetContext();
+
+        // Keep the counters and the flight recorder in the app's own files
+        FeatureCounters.init(mContext);
+
+        mNodes.getBackend().put(SliderControllerBase.SLIDER_STATE, "1");
+
+        mServices = new StubServiceHandles(mContext);
+        ServiceHandles.setInstance(mServices);
+
+        // Thousands of vibrations would only slow the burst down
+        mOldHapticFeedback = Settings.System.getInt(mContext.getContentResolver(),
+                KEY_GESTURE_HAPTIC_FEEDBACK, 1);
+        Settings.System.putInt(mContext.getContentResolver(), KEY_GESTURE_HAPTIC_FEEDBACK, 0);
+
+        // The key handler and the slider controllers need a looper
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mKeyHandler = new KeyHandler(mContext);
+            }
+        });
+        mInstrumentation.waitForIdleSync();
+
+        // Only actions that stay inside the process and the stubs
+        mScancodes = mContext.getResources().getIntArray(R.array.config_gestureScancodes);
+        int[] actions = new int[mScancodes.length];
+        for (int i = 0; i < actions.length; i++) {
+            actions[i] = i % 2 == 0 ? GestureRegistry.ACTION_FLASHLIGHT
+                    : GestureRegistry.ACTION_NONE;
+        }
+        mKeyHandler.setGestureActions(actions);
+        updateSlider(FLASHLIGHT);
+    }
+
+    @After
+    public void tearDown() {
+        AutoOffScheduler.get(mContext).cancel(AutoOffScheduler.FEATURE_TORCH);
+        Settings.System.putInt(mContext.getContentResolver(), KEY_GESTURE_HAPTIC_FEEDBACK,
+                mOldHapticFeedback);
+        ServiceHandles.setInstance(null);
+    }
+
+    @Test
+    public void survivesKeyEventStorm() {
+        final Random random = new Random(SEED);
+        final long[] latencies = new long[EVENTS];
+        int sliderUpdates = 0;
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < EVENTS; i++) {
+            final KeyEvent event = randomEvent(random);
+            final long eventStart = System.nanoTime();
+            mKeyHandler.handleKeyEvent(event);
+            latencies[i] = System.nanoTime() - eventStart;
+
+            // Switch controllers now and then, which resets the old one
+            if (random.nextInt(1000) == 0) {
+                updateSlider(SLIDER_CONFIGS[random.nextInt(SLIDER_CONFIGS.length)]);
+                sliderUpdates++;
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+
+        report(latencies, elapsed, sliderUpdates);
+
+        // Let pending proximity checks, gestures and wakelock deadlines run
+        SystemClock.sleep(SETTLE_TIME);
+        mInstrumentation.waitForIdleSync();
+
+        assertFalse("proximity listener left", mKeyHandler.isProximityListening());
+        assertFalse("gesture left pending", mKeyHandler.hasPendingGesture());
+
+        // Reset the slider the way a settings change does, and the gesture
+        // torch the way its auto-off timer does
+        updateSlider(RINGER);
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mKeyHandler.setTorchOff();
+            }
+        });
+        mInstrumentation.waitForIdleSync();
+
+        FlashlightController flashlight = (FlashlightController)
+                mKeyHandler.getSliderController(SliderCatalog.USAGE_FLASHLIGHT);
+        assertFalse("still blinking", flashlight.isBlinking());
+        assertFalse("torch left on", mServices.isAnyTorchOn());
+        assertFalse("gesture torch left on", mKeyHandler.isTorchEnabled());
+        assertFalse("wakelock left held", WakeLockManager.get(mContext).isAnyHeld());
+        assertEquals("task stack listener left", 0, mServices.getTaskStackListeners());
+    }
+
+    private KeyEvent randomEvent(Random random) {
+        final int scancode;
+        final int kind = random.nextInt(10);
+        if (kind < 5) {
+            scancode = mScancodes[random.nextInt(mScancodes.length)];
+        } else if (kind < 9) {
+            scancode = SliderControllerBase.KEY_SLIDER_TOP + random.nextInt(3);
+        } else {
+            scancode = UNSUPPORTED_SCANCODE;
+        }
+        final int action = random.nextBoolean() ? KeyEvent.ACTION_DOWN : KeyEvent.ACTION_UP;
+        final long now = SystemClock.uptimeMillis();
+        return new KeyEvent(now, now, action, KeyEvent.KEYCODE_UNKNOWN, 0, 0,
+                0, scancode);
+    }
+
+    private void updateSlider(int[] config) {
+        mKeyHandler.updateSlider(config[0], Arrays.copyOfRange(config, 1, config.length));
+    }
+
+    private void report(long[] latencies, long elapsed, int sliderUpdates) {
+        final long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        final long p50 = sorted[sorted.length / 2];
+        final long p99 = sorted[(int) (sorted.length * 0.99)];
+        final long max = sorted[sorted.length - 1];
+        final long throughput = latencies.length * 1000000000L / Math.max(1, elapsed);
+
+        Bundle status = new Bundle();
+        status.putLong("events", latencies.length);
+        status.putLong("events_per_second", throughput);
+        status.putLong("latency_p50_ns", p50);
+        status.putLong("latency_p99_ns", p99);
+        status.putLong("latency_max_ns", max);
+        status.putLong("slider_updates", sliderUpdates);
+        status.putLong("torch_calls", mServices.getTorchCalls());
+        mInstrumentation.sendStatus(Activity.RESULT_OK, status);
+
+        Log.i(TAG, latencies.length + " events at " + throughput + "/s, p50="
+                + p50 + "ns p99=" + p99 + "ns max=" + max + "ns");
+    }
+
+    /**
+     * Services that only record what they were asked to do.
+     */
+    private static class StubServiceHandles extends ServiceHandles {
+
+        private final Map<String, Boolean> mTorches = new HashMap<>();
+        private int mTorchCalls;
+        private int mTaskStackListeners;
+
+        StubServiceHandles(Context context) {
+            super(context);
+        }
+
+        synchronized boolean isAnyTorchOn() {
+            return mTorches.containsValue(true);
+        }
+
+        synchronized int getTorchCalls() {
+            return mTorchCalls;
+        }
+
+        synchronized int getTaskStackListeners() {
+            return mTaskStackListeners;
+        }
+
+        @Override
+        public synchronized void setTorchMode(String cameraId, boolean enabled) {
+            mTorches.put(cameraId, enabled);
+            mTorchCalls++;
+        }
+
+        @Override
+        public synchronized boolean registerTaskStackListener(ITaskStackListener listener) {
+            mTaskStackListeners++;
+            return true;
+        }
+
+        @Override
+        public synchronized void unregisterTaskStackListener(ITaskStackListener listener) {
+            mTaskStackListeners--;
+        }
+
+        @Override
+        public boolean setRotationLocked(boolean locked, int rotation) {
+            return true;
+        }
+
+        @Override
+        public boolean setRingerModeInternal(int ringerMode) {
+            return true;
+        }
+
+        @Override
+        public boolean setZenMode(int zenMode, String reason) {
+            return true;
+        }
+
+        @Override
+        public String getTopPackage() {
+            return null;
+        }
+
+        @Override
+        public boolean isKeyguardSecure() {
+            return false;
+        }
+
+        @Override
+        public boolean isKeyguardLocked() {
+            return false;
+        }
+
+        @Override
+        public boolean putSystemInt(String key, int value) {
+            return true;
+        }
+
+        @Override
+        public void wakeUp(String reason) {
+        }
+
+        @Override
+        public void goToSleep() {
+        }
+    }
+}
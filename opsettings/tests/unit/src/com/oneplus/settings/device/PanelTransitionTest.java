@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import android.os.Handler;
+import android.os.test.TestLooper;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.oneplus.settings.device.utils.MemoryNodeBackend;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs transitions on a test looper and a fake clock against an in-memory
+ * calibration node.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PanelTransitionTest {
+
+    private static final String NODE = "/sys/devices/platform/kcal_ctrl.0/kcal";
+    private static final String BASE = "256 256 256\n";
+
+    private static final int MAX = 256;
+    private static final long DURATION = 150;
+    private static final long FRAME = 16;
+    private static final int DIM_PERCENT = 80;
+
+    // Frames at 0, 16, ... 160 fading out, then 176, ... 320 fading in
+    private static final int FRAMES_PER_PHASE = (int) ((DURATION + FRAME - 1) / FRAME) + 1;
+    private static final int FRAMES = 2 * FRAMES_PER_PHASE - 1;
+
+    private final RecordingBackend mBackend = new RecordingBackend();
+
+    @Rule
+    public NodeBackendRule mNodes = new NodeBackendRule(mBackend);
+
+    private TestLooper mLooper;
+    private FakeClock mClock;
+    private PanelTransition mTransition;
+
+    @Before
+    public void setUp() {
+        mBackend.put(NODE, "256 256 256");
+
+        mLooper = new TestLooper();
+        mClock = new FakeClock();
+        mTransition = new PanelTransition(NODE, MAX, DURATION, FRAME, DIM_PERCENT,
+                new Handler(mLooper.getLooper()), mClock);
+    }
+
+    @Test
+    public void writesFramesAtFixedRate() {
+        CountingAction action = new CountingAction();
+        mTransition.run(action);
+        runToEnd();
+
+        assertEquals(FRAMES, mBackend.getWriteCount(NODE));
+        assertEquals(FRAMES, mTransition.getWriteCount());
+        for (int i = 1; i < mBackend.mTimes.size(); i++) {
+            assertEquals("spacing of frame " + i, FRAME,
+                    mBackend.mTimes.get(i) - mBackend.mTimes.get(i - 1));
+        }
+
+        // Switched once, at the darkest frame
+        assertEquals(1, action.mCount);
+        assertEquals((FRAMES_PER_PHASE - 1) * FRAME, action.mTime);
+        assertEquals("204 204 204\n", mBackend.mValues.get(FRAMES_PER_PHASE - 1));
+        assertEquals(BASE, mBackend.get(NODE));
+    }
+
+    @Test
+    public void stopsWritingAtTarget() {
+        mTransition.run(new CountingAction());
+        runToEnd();
+        final int writes = mBackend.getWriteCount(NODE);
+
+        advance(10 * FRAME);
+        assertEquals(writes, mBackend.getWriteCount(NODE));
+    }
+
+    @Test
+    public void collapsesOverlappingTransitions() {
+        CountingAction first = new CountingAction();
+        CountingAction second = new CountingAction();
+        mTransition.run(first);
+        advance(3 * FRAME);
+        mTransition.run(second);
+
+        // The first switch must not wait for the second transition
+        assertEquals(1, first.mCount);
+        assertEquals(3 * FRAME, first.mTime);
+        runToEnd();
+
+        assertEquals(1, first.mCount);
+        assertEquals(1, second.mCount);
+        assertEquals(BASE, mBackend.get(NODE));
+    }
+
+    @Test
+    public void switchesAtOnceWithoutNode() {
+        PanelTransition transition = new PanelTransition(null, MAX, DURATION, FRAME,
+                DIM_PERCENT, new Handler(mLooper.getLooper()), mClock);
+        CountingAction action = new CountingAction();
+        transition.run(action);
+
+        assertEquals(1, action.mCount);
+        assertFalse(transition.isRunning());
+        assertEquals(0, mBackend.getWriteCount(NODE));
+    }
+
+    @Test
+    public void switchesWhenNodeFails() {
+        CountingAction action = new CountingAction();
+        mTransition.run(action);
+        advance(2 * FRAME);
+        mBackend.setFailing(NODE, true);
+        advance(FRAME);
+
+        assertEquals(1, action.mCount);
+        assertFalse(mTransition.isRunning());
+        assertEquals(3, mTransition.getWriteCount());
+    }
+
+    private void runToEnd() {
+        for (int i = 0; i < 10 * FRAMES && mTransition.isRunning(); i++) {
+            advance(FRAME);
+        }
+        assertFalse(mTransition.isRunning());
+    }
+
+    private void advance(long millis) {
+        mClock.mNow += millis;
+        mLooper.moveTimeForward(millis);
+        mLooper.dispatchAll();
+    }
+
+    private static class FakeClock implements PanelTransition.Clock {
+
+        long mNow;
+
+        @Override
+        public long uptimeMillis() {
+            return mNow;
+        }
+    }
+
+    private class CountingAction implements Runnable {
+
+        int mCount;
+        long mTime = -1;
+
+        @Override
+        public void run() {
+            mCount++;
+            mTime = mClock.mNow;
+        }
+    }
+
+    private class RecordingBackend extends MemoryNodeBackend {
+
+        final List<Long> mTimes = new ArrayList<>();
+        final List<String> mValues = new ArrayList<>();
+
+        @Override
+        public void write(String node, String value) throws IOException {
+            super.write(node, value);
+            mTimes.add(mClock.mNow);
+            mValues.add(value);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2019 Havoc-OS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oneplus.settings.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.oneplus.settings.device.utils.MemoryNodeBackend;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Slider dispatch and state restore on an in-memory slider state node.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SliderControllerBaseTest {
+
+    private static final int[] ACTIONS = {
+        SliderCatalog.NOTIFICATION_TOTAL_SILENCE,
+        SliderCatalog.NOTIFICATION_PRIORITY_ONLY,
+        SliderCatalog.NOTIFICATION_ALL
+    };
+
+    @Rule
+    public NodeBackendRule mNodes = new NodeBackendRule();
+
+    private MemoryNodeBackend mBackend;
+    private RecordingController mController;
+
+    @Before
+    public void setUp() {
+        mBackend = mNodes.getBackend();
+        mController = new RecordingController(InstrumentationRegistry.getTargetContext());
+    }
+
+    @Test
+    public void ignoresEventsBeforeUpdate() {
+        assertFalse(mController.processEvent(SliderControllerBase.KEY_SLIDER_TOP));
+        mBackend.put(SliderControllerBase.SLIDER_STATE, "1");
+        mController.restoreState();
+        assertEquals(0, mController.mActions.size());
+    }
+
+    @Test
+    public void dispatchesPositionAction() {
+        mController.update(ACTIONS);
+        mController.processEvent(SliderControllerBase.KEY_SLIDER_BOTTOM);
+        mController.processEvent(SliderControllerBase.KEY_SLIDER_TOP);
+        mController.processEvent(SliderControllerBase.KEY_SLIDER_MIDDLE);
+        mController.processEvent(0);
+
+        assertEquals(3, mController.mActions.size());
+        assertEquals(ACTIONS[2], (int) mController.mActions.get(0));
+        assertEquals(ACTIONS[0], (int) mController.mActions.get(1));
+        assertEquals(ACTIONS[1], (int) mController.mActions.get(2));
+    }
+
+    @Test
+    public void restoresStateFromNode() {
+        mController.update(ACTIONS);
+        mBackend.put(SliderControllerBase.SLIDER_STATE, "2\n");
+        mController.restoreState();
+
+        assertEquals(1, mController.mActions.size());
+        assertEquals(ACTIONS[1], (int) mController.mActions.get(0));
+    }
+
+    @Test
+    public void skipsRestoreOnBadNode() {
+        mController.update(ACTIONS);
+        mController.restoreState();
+
+        mBackend.put(SliderControllerBase.SLIDER_STATE, "garbage");
+        mController.restoreState();
+
+        mBackend.put(SliderControllerBase.SLIDER_STATE, "4");
+        mController.restoreState();
+
+        mBackend.put(SliderControllerBase.SLIDER_STATE, "1");
+        mBackend.setFailing(SliderControllerBase.SLIDER_STATE, true);
+        mController.restoreState();
+
+        assertEquals(0, mController.mActions.size());
+    }
+
+    private static class RecordingController extends SliderControllerBase {
+
+        final List<Integer> mActions = new ArrayList<>();
+
+        RecordingController(Context context) {
+            super(context);
+        }
+
+        @Override
+        protected boolean processAction(int action) {
+            mActions.add(action);
+            // Unprocessed, so no haptic feedback is played
+            return false;
+        }
+
+        @Override
+        public void reset() {
+        }
+    }
+}